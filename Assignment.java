@@ -0,0 +1,200 @@
+package sokoban;
+
+import java.util.Arrays;
+
+/**
+ * A lower bound on the number of pushes needed to solve a position: the cost
+ * of the cheapest assignment of boxes to storage locations, where moving a box
+ * to a storage location costs its push distance.
+ *
+ * <p>
+ * The assignment is found with the Hungarian algorithm, keeping dual
+ * potentials for the storage locations (rows) and the boxes (columns). When
+ * there are more boxes than storage locations, the extra rows cost nothing for
+ * every box so that the problem stays square. Solving a position from scratch
+ * takes O(boxes<sup>3</sup>) time. A position that differs from an already
+ * solved one by a single push is solved from a copy of that solution by
+ * freeing the storage location of the pushed box and running one augmenting
+ * step, which takes O(boxes<sup>2</sup>) time.
+ *
+ * <p>
+ * Instances hold scratch arrays and must only be used by one thread at a time;
+ * the {@code Matching} results are immutable.
+ */
+class Assignment {
+
+	private final PushDistances distances;
+	private final int size;
+	private final int storages;
+
+	private final int[] minv;
+	private final int[] way;
+	private final boolean[] used;
+
+	/**
+	 * A solved assignment for one position: the potentials of the rows and
+	 * columns, the row assigned to each column, and the total cost.
+	 */
+	static final class Matching {
+		final int[] u;
+		final int[] v;
+		final int[] p;
+		final int cost;
+
+		Matching(int[] u, int[] v, int[] p, int cost) {
+			this.u = u;
+			this.v = v;
+			this.p = p;
+			this.cost = cost;
+		}
+
+		/**
+		 * Returns {@code true} if some storage location cannot be reached by any
+		 * box that is not needed elsewhere, so the position cannot be solved.
+		 */
+		boolean isInfinite() {
+			return this.cost >= PushDistances.INFINITE;
+		}
+	}
+
+	/**
+	 * Initialize an assignment of the specified number of boxes to the storage
+	 * locations of a push distance table.
+	 *
+	 * @param distances the push distances of the level
+	 * @param boxes the number of boxes, at least the number of storage locations
+	 */
+	Assignment(PushDistances distances, int boxes) {
+		this.distances = distances;
+		this.size = boxes;
+		this.storages = distances.storageCount();
+		this.minv = new int[boxes + 1];
+		this.way = new int[boxes + 1];
+		this.used = new boolean[boxes + 1];
+	}
+
+	/**
+	 * Returns the cost of assigning the box in column {@code j} to row {@code i},
+	 * both counted from 1.
+	 */
+	private int cost(int i, int j, int[] boxes) {
+		return i <= this.storages ? this.distances.distance(i - 1, boxes[j - 1]) : 0;
+	}
+
+	/**
+	 * Solves the assignment for the specified sorted box squares from scratch.
+	 */
+	Matching solve(int[] boxes) {
+		int[] u = new int[this.size + 1];
+		int[] v = new int[this.size + 1];
+		int[] p = new int[this.size + 1];
+		for (int i = 1; i <= this.size; i++) {
+			this.augment(i, boxes, u, v, p);
+		}
+		return new Matching(u, v, p, this.total(boxes, p));
+	}
+
+	/**
+	 * Solves the assignment for a position reached from a solved one by pushing
+	 * a single box.
+	 *
+	 * @param parent the solution of the position before the push
+	 * @param boxes the sorted box squares after the push
+	 * @param from the index of the pushed box before the push
+	 * @param to the index of the pushed box in {@code boxes}
+	 */
+	Matching update(Matching parent, int[] boxes, int from, int to) {
+		int[] u = parent.u.clone();
+		int[] v = parent.v.clone();
+		int[] p = parent.p.clone();
+
+		// the columns follow the sorted boxes, so the pushed box may change column
+		rotate(v, from + 1, to + 1);
+		rotate(p, from + 1, to + 1);
+
+		// free the pushed box and lower its potential until every row is feasible
+		int j = to + 1;
+		int row = p[j];
+		p[j] = 0;
+		int potential = Integer.MAX_VALUE;
+		for (int i = 1; i <= this.size; i++) {
+			potential = Math.min(potential, this.cost(i, j, boxes) - u[i]);
+		}
+		v[j] = potential;
+		this.augment(row, boxes, u, v, p);
+		return new Matching(u, v, p, this.total(boxes, p));
+	}
+
+	/**
+	 * Moves the element at index {@code a} to index {@code b}, shifting the
+	 * elements in between by one.
+	 */
+	private static void rotate(int[] array, int a, int b) {
+		int moved = array[a];
+		if (a < b) {
+			System.arraycopy(array, a + 1, array, a, b - a);
+		}
+		else if (a > b) {
+			System.arraycopy(array, b, array, b + 1, a - b);
+		}
+		array[b] = moved;
+	}
+
+	/**
+	 * Assigns the free row {@code row} by finding a shortest augmenting path
+	 * over the reduced costs and adjusting the potentials along the way.
+	 */
+	private void augment(int row, int[] boxes, int[] u, int[] v, int[] p) {
+		p[0] = row;
+		int j0 = 0;
+		Arrays.fill(this.minv, Integer.MAX_VALUE);
+		Arrays.fill(this.used, false);
+		do {
+			this.used[j0] = true;
+			int i0 = p[j0];
+			int delta = Integer.MAX_VALUE;
+			int j1 = 0;
+			for (int j = 1; j <= this.size; j++) {
+				if (!this.used[j]) {
+					int reduced = this.cost(i0, j, boxes) - u[i0] - v[j];
+					if (reduced < this.minv[j]) {
+						this.minv[j] = reduced;
+						this.way[j] = j0;
+					}
+					if (this.minv[j] < delta) {
+						delta = this.minv[j];
+						j1 = j;
+					}
+				}
+			}
+			for (int j = 0; j <= this.size; j++) {
+				if (this.used[j]) {
+					u[p[j]] += delta;
+					v[j] -= delta;
+				}
+				else {
+					this.minv[j] -= delta;
+				}
+			}
+			j0 = j1;
+		}
+		while (p[j0] != 0);
+		do {
+			int j1 = this.way[j0];
+			p[j0] = p[j1];
+			j0 = j1;
+		}
+		while (j0 != 0);
+	}
+
+	/**
+	 * Returns the total cost of the assignment in {@code p}.
+	 */
+	private int total(int[] boxes, int[] p) {
+		int sum = 0;
+		for (int j = 1; j <= this.size; j++) {
+			sum += this.cost(p[j], j, boxes);
+		}
+		return Math.min(sum, PushDistances.INFINITE);
+	}
+}
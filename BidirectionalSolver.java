@@ -0,0 +1,358 @@
+package sokoban;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A class that finds a solution for a Sokoban level by searching forwards from
+ * the initial position and backwards from the solved positions at the same
+ * time.
+ *
+ * <p>
+ * The forward search pushes boxes, like {@code Solver}. The backward search
+ * starts from every solved position returned by {@code Board.goalStates} and
+ * pulls boxes, which undoes pushes. Both searches use the same push states and
+ * keep them in one shared table, recording for each state which search reached
+ * it and how far from its start. Each search is an A* search towards the other
+ * end, and the search with the smaller frontier is expanded next. The searches
+ * stop as soon as one of them reaches a state already reached by the other, so
+ * the solution is short but, unlike the one found by {@code Solver}, does not
+ * always have the fewest pushes.
+ *
+ * <p>
+ * The backward search is usually much narrower than the forward search on
+ * open levels, because most squares cannot be reached by pulling a box away
+ * from a storage location. Levels with more boxes than storage locations have
+ * no single solved position, and are only searched forwards, in which case the
+ * solution has the fewest pushes.
+ */
+public class BidirectionalSolver {
+
+	private final Board board;
+
+	private long nodesExpanded;
+	private long elapsedNanos;
+	private long peakMemory;
+
+	/**
+	 * Initialize a solver for the level on the specified board. The board is not
+	 * changed by the solver.
+	 *
+	 * @param board the board to solve
+	 */
+	public BidirectionalSolver(Board board) {
+		this.board = board;
+	}
+
+	/**
+	 * Searches for a solution of the level. Returns {@code null} if the level
+	 * cannot be solved.
+	 *
+	 * @return a solution in LURD notation, or {@code null} if there is no solution
+	 */
+	public String solve() {
+		long start = System.nanoTime();
+		this.nodesExpanded = 0;
+		this.peakMemory = 0;
+		try {
+			return this.search();
+		}
+		finally {
+			this.elapsedNanos = System.nanoTime() - start;
+			this.sampleMemory();
+		}
+	}
+
+	/**
+	 * Returns the number of states expanded by the last call to {@code solve}, in
+	 * both directions.
+	 *
+	 * @return the number of states expanded
+	 */
+	public long nodesExpanded() {
+		return this.nodesExpanded;
+	}
+
+	/**
+	 * Returns the number of states expanded per second by the last call to
+	 * {@code solve}.
+	 *
+	 * @return the number of states expanded per second
+	 */
+	public double nodesPerSecond() {
+		if (this.elapsedNanos == 0) {
+			return 0;
+		}
+		return this.nodesExpanded * 1e9 / this.elapsedNanos;
+	}
+
+	/**
+	 * Returns the largest amount of heap memory in bytes that was seen in use
+	 * during the last call to {@code solve}.
+	 *
+	 * @return the peak heap memory use in bytes
+	 */
+	public long peakMemory() {
+		return this.peakMemory;
+	}
+
+	private String search() {
+		SearchSpace space = new SearchSpace(this.board);
+		int[] boxes = space.initialBoxes();
+		if (boxes == null) {
+			return null;
+		}
+		if (space.isGoal(boxes)) {
+			return "";
+		}
+		space.placeBoxes(boxes, true);
+		BoardState root = new BoardState(space.reach(this.board.playerCell()), boxes);
+		space.placeBoxes(boxes, false);
+		Search forward = new Search(space, false, new Assignment(new PushDistances(this.board), boxes.length));
+		Search backward = new Search(space, true, new Assignment(new PushDistances(this.board, boxes), boxes.length));
+		Map<BoardState, Entry> seen = new HashMap<BoardState, Entry>();
+		if (!forward.start(root, seen)) {
+			return null;
+		}
+		for (BoardState goal : this.board.goalStates()) {
+			backward.start(goal, seen);
+		}
+		boolean bothWays = !backward.open.isEmpty();
+
+		Meeting best = null;
+		while (!forward.open.isEmpty() && (!bothWays || !backward.open.isEmpty())) {
+			if (best != null && (bothWays || best.pushes <= forward.open.peek().estimate)) {
+				// going forwards only, every solution through a state still to be
+				// expanded is at least this long
+				break;
+			}
+			Search search = bothWays && backward.open.size() < forward.open.size() ? backward : forward;
+			Meeting meeting = search.expand(seen, bothWays);
+			if (meeting != null && (best == null || meeting.pushes < best.pushes)) {
+				best = meeting;
+			}
+			if ((this.nodesExpanded & 0xFFF) == 0) {
+				this.sampleMemory();
+			}
+		}
+		return best == null ? null : this.moves(space, best.state, seen);
+	}
+
+	/**
+	 * One direction of the search: an A* search that either pushes boxes towards
+	 * the solved positions or pulls them towards the initial position, with a
+	 * lower bound on the pushes to the other end.
+	 */
+	private final class Search {
+		final SearchSpace space;
+		final boolean pull;
+		final Assignment assignment;
+		final PriorityQueue<Node> open = new PriorityQueue<Node>();
+
+		Search(SearchSpace space, boolean pull, Assignment assignment) {
+			this.space = space;
+			this.pull = pull;
+			this.assignment = assignment;
+		}
+
+		/**
+		 * Adds a state this direction starts from, unless it cannot reach the other
+		 * end at all, and returns {@code true} if it was added.
+		 */
+		boolean start(BoardState state, Map<BoardState, Entry> seen) {
+			Assignment.Matching matching = this.assignment.solve(state.boxes());
+			if (matching.isInfinite()) {
+				return false;
+			}
+			seen.computeIfAbsent(state, s -> new Entry()).reach(this.pull, 0, null, -1);
+			Node node = new Node(state, 0, matching.cost);
+			node.matching = matching;
+			this.open.add(node);
+			return true;
+		}
+
+		/**
+		 * Expands the most promising state of this direction by pushing or pulling
+		 * every box that can be moved, and returns the shortest solution through
+		 * one of the states reached, or {@code null} if none was found. When the
+		 * search only goes forwards, a solution is found at a solved position;
+		 * otherwise it is found at a state that was already reached by the other
+		 * direction.
+		 */
+		Meeting expand(Map<BoardState, Entry> seen, boolean bothWays) {
+			Node node = this.open.poll();
+			if (seen.get(node.state).pushes(this.pull) < node.pushes) {
+				// a shorter way to this state was found after this node was queued
+				return null;
+			}
+			BidirectionalSolver.this.nodesExpanded++;
+			int[] boxes = node.state.boxes();
+			Assignment.Matching matching = node.matching == null ? this.assignment.solve(boxes) : node.matching;
+			node.matching = null;
+			this.space.placeBoxes(boxes, true);
+			this.space.reach(node.state.playerCell());
+			int[] moves = this.pull ? this.space.pulls(boxes) : this.space.pushes(boxes);
+			Meeting best = null;
+			for (int move : moves) {
+				int i = move / 4;
+				int d = move % 4;
+				int box = boxes[i];
+				// a push leaves the player where the box was, a pull one square beyond it
+				int to = BidirectionalSolver.this.board.neighbour(box, d);
+				int player = this.pull ? BidirectionalSolver.this.board.neighbour(to, d) : box;
+				this.space.moveBox(box, to);
+				if (this.pull || !this.space.isDeadlock(to)) {
+					int[] next = SearchSpace.moveBox(boxes, i, to);
+					Assignment.Matching bound = this.assignment.update(matching, next, i, Arrays.binarySearch(next, to));
+					if (!bound.isInfinite()) {
+						BoardState state = new BoardState(this.space.reach(player), next);
+						Entry entry = seen.computeIfAbsent(state, s -> new Entry());
+						int pushes = node.pushes + 1;
+						if (entry.pushes(this.pull) > pushes) {
+							entry.reach(this.pull, pushes, node.state, 4 * box + d);
+							Node child = new Node(state, pushes, pushes + bound.cost);
+							child.matching = bound;
+							this.open.add(child);
+							int total = pushes + entry.pushes(!this.pull);
+							if (!bothWays && this.space.isGoal(next)) {
+								total = pushes;
+							}
+							if (total < Entry.UNREACHED && (best == null || total < best.pushes)) {
+								best = new Meeting(state, total);
+							}
+						}
+					}
+				}
+				this.space.moveBox(to, box);
+			}
+			this.space.placeBoxes(boxes, false);
+			return best;
+		}
+	}
+
+	/**
+	 * Returns the moves of the solution through the specified meeting state: the
+	 * pushes that lead to it from the initial position, followed by the pushes
+	 * that undo the pulls leading to it from a solved position.
+	 */
+	private String moves(SearchSpace space, BoardState meeting, Map<BoardState, Entry> seen) {
+		List<Integer> pushes = new ArrayList<Integer>();
+		for (Entry e = seen.get(meeting); e.forwardParent != null; e = seen.get(e.forwardParent)) {
+			pushes.add(0, e.forwardMove);
+		}
+		for (Entry e = seen.get(meeting); e.backwardParent != null; e = seen.get(e.backwardParent)) {
+			// the pull moved the box from its square to the next one in direction d
+			int d = e.backwardMove % 4;
+			pushes.add(4 * this.board.neighbour(e.backwardMove / 4, d) + (d ^ 1));
+		}
+		int[] result = new int[pushes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = pushes.get(i);
+		}
+		return space.moves(result);
+	}
+
+	private void sampleMemory() {
+		Runtime rt = Runtime.getRuntime();
+		this.peakMemory = Math.max(this.peakMemory, rt.totalMemory() - rt.freeMemory());
+	}
+
+	/**
+	 * How a state was reached by each direction of the search: the fewest pushes
+	 * or pulls found so far from that direction's start, the state before the
+	 * last one, and the last push or pull, encoded as {@code 4 * box + direction}
+	 * with the square of the box before the move.
+	 */
+	private static final class Entry {
+		static final int UNREACHED = Integer.MAX_VALUE / 2;
+
+		int forwardPushes = UNREACHED;
+		BoardState forwardParent;
+		int forwardMove;
+		int backwardPushes = UNREACHED;
+		BoardState backwardParent;
+		int backwardMove;
+
+		int pushes(boolean backward) {
+			return backward ? this.backwardPushes : this.forwardPushes;
+		}
+
+		void reach(boolean backward, int pushes, BoardState parent, int move) {
+			if (backward) {
+				this.backwardPushes = pushes;
+				this.backwardParent = parent;
+				this.backwardMove = move;
+			}
+			else {
+				this.forwardPushes = pushes;
+				this.forwardParent = parent;
+				this.forwardMove = move;
+			}
+		}
+	}
+
+	/**
+	 * A state through which a solution was found, and the number of pushes of
+	 * that solution.
+	 */
+	private static final class Meeting {
+		final BoardState state;
+		final int pushes;
+
+		Meeting(BoardState state, int pushes) {
+			this.state = state;
+			this.pushes = pushes;
+		}
+	}
+
+	/**
+	 * A state waiting to be expanded by one direction of the search, with its
+	 * pushes from that direction's start and the estimated length of a solution
+	 * through it.
+	 */
+	private static final class Node implements Comparable<Node> {
+		final BoardState state;
+		final int pushes;
+		final int estimate;
+
+		// the box assignment of the state, kept until the node is expanded
+		Assignment.Matching matching;
+
+		Node(BoardState state, int pushes, int estimate) {
+			this.state = state;
+			this.pushes = pushes;
+			this.estimate = estimate;
+		}
+
+		@Override
+		public int compareTo(Node other) {
+			if (this.estimate != other.estimate) {
+				return Integer.compare(this.estimate, other.estimate);
+			}
+			// prefer the state that is closer to the other end
+			return Integer.compare(other.pushes, this.pushes);
+		}
+	}
+
+	/**
+	 * Solves the levels with the specified filenames and prints the solutions
+	 * along with some statistics about the search.
+	 *
+	 * @param args the filenames of the levels to solve
+	 * @throws IOException if a level file cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String filename : args) {
+			BidirectionalSolver solver = new BidirectionalSolver(new Board(filename));
+			String solution = solver.solve();
+			System.out.println(filename + ": " + (solution == null ? "no solution" : solution));
+			System.out.printf("  %d nodes expanded, %.0f nodes/s, %d KB peak memory%n", solver.nodesExpanded(),
+					solver.nodesPerSecond(), solver.peakMemory() / 1024);
+		}
+	}
+}
@@ -5,7 +5,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -51,6 +51,65 @@ public class Board {
 	private ArrayList<Box> boxes;
 	private ArrayList<Storage> storages;
 
+	/*
+	 * Cell flags stored in the occupancy grid. The grid has one entry per square
+	 * of the board, indexed by y * width + x.
+	 */
+	static final byte WALL = 1;
+	static final byte BOX = 2;
+	static final byte STORAGE = 4;
+
+	/**
+	 * The direction to the left, for use with {@code movePlayer} and
+	 * {@code neighbour}.
+	 */
+	public static final int LEFT = 0;
+
+	/**
+	 * The direction to the right, for use with {@code movePlayer} and
+	 * {@code neighbour}.
+	 */
+	public static final int RIGHT = 1;
+
+	/**
+	 * The upwards direction, for use with {@code movePlayer} and
+	 * {@code neighbour}.
+	 */
+	public static final int UP = 2;
+
+	/**
+	 * The downwards direction, for use with {@code movePlayer} and
+	 * {@code neighbour}.
+	 */
+	public static final int DOWN = 3;
+
+	private byte[] cells;
+	private int[] boxIds;
+	private int[] neighbours;
+	private int playerCell;
+	private LocationTable locations;
+	private Deadlocks deadlocks;
+	private boolean deadlocked;
+	private int deadlockedAt;
+	private int boxesOnStorage;
+	private Zobrist zobrist;
+	private long boxHash;
+	private long hash;
+	private Reachability region;
+	private boolean regionValid;
+	private final int[] changed = new int[3];
+	private int changedCount;
+	private byte[] journal = new byte[64];
+	private int journalLength;
+	private int journalEnd;
+
+	/*
+	 * Each move in the journal is stored in four bits: the direction in the low
+	 * two bits and whether a box was pushed in the third bit.
+	 */
+	private static final int PUSH = 4;
+	private static final String LURD = "lrudLRUD";
+
 	/**
 	 * Initialize a board of width 11 and height 11 with a {@code Player} located at
 	 * (4, 5), a {@code Box} located at (5, 5), and a storage location located at
@@ -59,20 +118,22 @@ public class Board {
 	public Board() {
 		width = 11;
 		height = 11;
-		Location playerLo =  new Location(4, 5);
+		locations = new LocationTable(width, height);
+		Location playerLo =  locations.at(4, 5);
 		player = new Player(playerLo);
 		
 		boxes = new ArrayList<Box>();
-		Location boxLo = new Location(5, 5);
+		Location boxLo = locations.at(5, 5);
 		Box box = new Box(boxLo);
 		boxes.add(box);
 		
 		storages = new ArrayList<Storage>();
-		Location storageLo = new Location(6, 5);
+		Location storageLo = locations.at(6, 5);
 		Storage storage= new Storage(storageLo);
 		storages.add(storage);
 		
 		walls = new ArrayList<Wall>();
+		this.buildGrid();
 	}
 
 	/**
@@ -97,19 +158,128 @@ public class Board {
 		this.readLevel(filename);
 	}
 
+	/**
+	 * Initialize a board from the rows of a level that has already been read, for
+	 * example from a level collection. The rows use the same symbols as a level
+	 * file, and the size of the board is determined in the same way.
+	 * 
+	 * @param level the rows of the level, from top to bottom
+	 */
+	public Board(List<String> level) {
+		width = 0;
+		height = 0;
+		walls = new ArrayList<Wall>();
+		storages = new ArrayList<Storage>();
+		boxes = new ArrayList<Box>();
+		this.parseLevel(level);
+	}
+
+	/**
+	 * Initialize a board from a level that has been compiled into a level pack.
+	 * The walls and dead squares are given as bit sets over the grid indexes,
+	 * and the boxes and storage locations as lists of grid indexes. No wall
+	 * objects are made until {@code getWalls} is called, and the dead squares
+	 * are not worked out again.
+	 * 
+	 * @param width the width of the board
+	 * @param height the height of the board
+	 * @param wallBits the squares holding a wall
+	 * @param deadBits the dead squares
+	 * @param player the grid index of the player, or -1 if there is no player
+	 * @param boxCells the grid indexes of the boxes
+	 * @param storageCells the grid indexes of the storage locations
+	 */
+	Board(int width, int height, long[] wallBits, long[] deadBits, int player, int[] boxCells, int[] storageCells) {
+		this.width = width;
+		this.height = height;
+		this.locations = new LocationTable(width, height);
+		if (player >= 0) {
+			this.player = new Player(this.locations.at(player));
+		}
+		this.boxes = new ArrayList<Box>(boxCells.length);
+		for (int cell : boxCells) {
+			this.boxes.add(new Box(this.locations.at(cell)));
+		}
+		this.storages = new ArrayList<Storage>(storageCells.length);
+		for (int cell : storageCells) {
+			this.storages.add(new Storage(this.locations.at(cell)));
+		}
+		this.buildGrid(wallBits, deadBits);
+	}
+
+	/**
+	 * Initialize a board holding the position of the specified board, sharing
+	 * everything that does not change when the pieces move: the walls, the
+	 * storage locations, the interned locations, and the neighbour, dead square,
+	 * and hash tables. Only the occupancy grid and the pieces are copied, so
+	 * this is much cheaper than reading the level again. The specified board
+	 * must have interned every location and must not be moved afterwards.
+	 * 
+	 * @param level a board that is never moved
+	 */
+	Board(Board level) {
+		this.width = level.width;
+		this.height = level.height;
+		this.locations = level.locations;
+		this.walls = level.walls;
+		this.storages = level.storages;
+		this.boxes = new ArrayList<Box>(level.boxes.size());
+		for (Box box : level.boxes) {
+			this.boxes.add(new Box(box.location()));
+		}
+		if (level.player != null) {
+			this.player = new Player(level.player.location());
+		}
+		this.cells = level.cells.clone();
+		this.boxIds = level.boxIds.clone();
+		this.neighbours = level.neighbours;
+		this.playerCell = level.playerCell;
+		this.deadlocks = level.deadlocks;
+		this.deadlocked = level.deadlocked;
+		this.deadlockedAt = level.deadlockedAt;
+		this.boxesOnStorage = level.boxesOnStorage;
+		this.zobrist = level.zobrist;
+		this.boxHash = level.boxHash;
+		this.hash = level.hash;
+	}
+
+	/**
+	 * Makes the location of every square of this board and the list of its walls,
+	 * so that boards copied from this one can share them without making any.
+	 */
+	void internLocations() {
+		this.locations.internAll();
+		this.getWalls();
+	}
+
 	private final void readLevel(String filename) throws IOException {
+		GameEvents.LevelRead event = new GameEvents.LevelRead();
+		event.begin();
 		Path path = FileSystems.getDefault().getPath("src", "sokoban", filename);
-		List<String> level = Files.readAllLines(path);
+		this.parseLevel(Files.readAllLines(path));
+		event.end();
+		if (event.shouldCommit()) {
+			event.describe(this);
+			event.file = path.toString();
+			event.walls = this.getWalls().size();
+			event.commit();
+		}
+	}
+
+	private final void parseLevel(List<String> level) {
 		this.height = level.size();
 		this.width = 0;
-		for (int y = 0; y < this.height; y++) {
-			String row = level.get(y);
+		for (String row : level) {
 			if (row.length() > this.width) {
 				this.width = row.length();
 			}
+		}
+		this.locations = new LocationTable(this.width, this.height);
+		for (int y = 0; y < this.height; y++) {
+			String row = level.get(y);
 			for (int x = 0; x < row.length(); x++) {
 				// the location of this square
-				Location loc = new Location(x, y);
+				Location loc = this.locations.at(x, y);
 				
 				// the symbol at location (x, y)
 				char c = row.charAt(x);
@@ -157,6 +327,475 @@ public class Board {
 				}
 			}
 		}
+		this.buildGrid();
+	}
+
+	/**
+	 * Builds the occupancy grid from the wall, box, and storage collections. Each
+	 * square of the board gets a byte of {@code WALL}, {@code BOX}, and
+	 * {@code STORAGE} flags, and squares holding a box also record the index of
+	 * that box in {@code boxes} so that {@code getBox} does not need to search.
+	 * The grid index of each square's neighbours is precomputed as well.
+	 */
+	private final void buildGrid() {
+		this.buildGrid(null, null);
+	}
+
+	/**
+	 * Builds the occupancy grid, taking the walls from the specified bit set
+	 * instead of the wall collection and the dead squares from the other bit set
+	 * if they are not {@code null}.
+	 */
+	private final void buildGrid(long[] wallBits, long[] deadBits) {
+		int n = this.width * this.height;
+		this.cells = new byte[n];
+		this.boxIds = new int[n];
+		this.neighbours = new int[4 * n];
+		for (int cell = 0; cell < n; cell++) {
+			int x = cell % this.width;
+			int y = cell / this.width;
+			this.neighbours[4 * cell + LEFT] = x > 0 ? cell - 1 : -1;
+			this.neighbours[4 * cell + RIGHT] = x < this.width - 1 ? cell + 1 : -1;
+			this.neighbours[4 * cell + UP] = y > 0 ? cell - this.width : -1;
+			this.neighbours[4 * cell + DOWN] = y < this.height - 1 ? cell + this.width : -1;
+		}
+		if (wallBits == null) {
+			for (Wall w : this.walls) {
+				this.cells[this.cellOf(w.location())] |= WALL;
+			}
+		}
+		else {
+			for (int cell = 0; cell < n; cell++) {
+				if ((wallBits[cell >> 6] & 1L << cell) != 0) {
+					this.cells[cell] |= WALL;
+				}
+			}
+		}
+		for (Storage s : this.storages) {
+			this.cells[this.cellOf(s.location())] |= STORAGE;
+		}
+		for (int i = 0; i < this.boxes.size(); i++) {
+			int cell = this.cellOf(this.boxes.get(i).location());
+			this.cells[cell] |= BOX;
+			this.boxIds[cell] = i;
+		}
+		this.playerCell = this.player == null ? -1 : this.cellOf(this.player.location());
+		this.deadlocks = deadBits == null ? new Deadlocks(this) : new Deadlocks(this, deadBits);
+		this.zobrist = new Zobrist(n);
+		this.scanPosition();
+	}
+
+	/**
+	 * Recomputes the hashes of the current position, the number of boxes on
+	 * storage locations, and whether any box is deadlocked. Used when the whole
+	 * position changes at once.
+	 */
+	private void scanPosition() {
+		this.regionValid = false;
+		this.deadlocked = false;
+		this.deadlockedAt = Integer.MAX_VALUE;
+		this.boxesOnStorage = 0;
+		this.boxHash = 0;
+		for (Box box : this.boxes) {
+			int cell = this.cellOf(box.location());
+			this.boxHash ^= this.zobrist.box(cell);
+			if ((this.cells[cell] & STORAGE) != 0) {
+				this.boxesOnStorage++;
+			}
+			if (this.canDeadlock() && this.deadlocks.isDeadlock(this.cells, cell)) {
+				this.deadlocked = true;
+				this.deadlockedAt = 0;
+			}
+		}
+		this.hash = this.boxHash;
+		if (this.playerCell >= 0) {
+			this.hash ^= this.zobrist.player(this.playerCell);
+		}
+	}
+
+	/**
+	 * Returns the grid index of the specified location, or -1 if the location lies
+	 * outside of this board. The grid index of the location {@code (x, y)} is
+	 * {@code y * width() + x}.
+	 * 
+	 * @param loc a location
+	 * @return the grid index of the location, or -1 if it is outside of the board
+	 */
+	public int cellOf(Location loc) {
+		int x = loc.x();
+		int y = loc.y();
+		if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+			return -1;
+		}
+		return y * this.width + x;
+	}
+
+	/**
+	 * Returns the location with the specified grid index. The same
+	 * {@code Location} object is returned every time a grid index is asked for.
+	 * 
+	 * @param cell a grid index
+	 * @return the location with the specified grid index
+	 */
+	public Location location(int cell) {
+		return this.locations.at(cell);
+	}
+
+	/**
+	 * Returns the grid index of the square next to the specified square in the
+	 * specified direction, or -1 if that square lies outside of this board.
+	 * 
+	 * @param cell a grid index
+	 * @param direction one of {@code LEFT}, {@code RIGHT}, {@code UP}, or
+	 *                  {@code DOWN}
+	 * @return the grid index of the neighbouring square, or -1 if it is outside of
+	 *         the board
+	 */
+	public int neighbour(int cell, int direction) {
+		return this.neighbours[4 * cell + direction];
+	}
+
+	/**
+	 * Returns the grid index of the player's location.
+	 * 
+	 * @return the grid index of the player's location
+	 */
+	public int playerCell() {
+		return this.playerCell;
+	}
+
+	/**
+	 * Returns {@code true} if the square with the specified grid index has a wall
+	 * on it, {@code false} otherwise.
+	 * 
+	 * @param cell a grid index
+	 * @return {@code true} if the square has a wall on it, {@code false} otherwise
+	 */
+	public boolean hasWall(int cell) {
+		return (this.cells[cell] & WALL) != 0;
+	}
+
+	/**
+	 * Returns {@code true} if the square with the specified grid index has a box
+	 * on it, {@code false} otherwise.
+	 * 
+	 * @param cell a grid index
+	 * @return {@code true} if the square has a box on it, {@code false} otherwise
+	 */
+	public boolean hasBox(int cell) {
+		return (this.cells[cell] & BOX) != 0;
+	}
+
+	/**
+	 * Returns {@code true} if the square with the specified grid index has a
+	 * storage location on it, {@code false} otherwise.
+	 * 
+	 * @param cell a grid index
+	 * @return {@code true} if the square has a storage location on it,
+	 *         {@code false} otherwise
+	 */
+	public boolean hasStorage(int cell) {
+		return (this.cells[cell] & STORAGE) != 0;
+	}
+
+	/**
+	 * Returns a copy of the occupancy grid of this board. Each element holds the
+	 * {@code WALL}, {@code BOX}, and {@code STORAGE} flags of one square.
+	 * 
+	 * @return a copy of the occupancy grid
+	 */
+	byte[] cellFlags() {
+		return this.cells.clone();
+	}
+
+	/**
+	 * Returns the dead square and freeze deadlock tables of this board.
+	 * 
+	 * @return the deadlock tables of this board
+	 */
+	Deadlocks deadlocks() {
+		return this.deadlocks;
+	}
+
+	/**
+	 * Returns {@code true} if a box on the specified location could never be
+	 * pushed to any storage location, {@code false} otherwise. Only the walls and
+	 * storage locations of the board are taken into account, and locations
+	 * outside of the board or with a wall on them are never dead.
+	 * 
+	 * @param loc a location
+	 * @return {@code true} if a box on the location could never be pushed to a
+	 *         storage location, {@code false} otherwise
+	 */
+	public boolean isDeadSquare(Location loc) {
+		int cell = this.cellOf(loc);
+		return cell >= 0 && this.deadlocks.isDead(cell);
+	}
+
+	/**
+	 * Returns {@code true} if the level can no longer be solved because a box has
+	 * been pushed onto a dead square or has become frozen against walls and
+	 * other boxes away from a storage location, {@code false} otherwise. A
+	 * {@code false} result does not guarantee that the level can still be
+	 * solved. A level with more boxes than storage locations is never reported
+	 * as deadlocked, since its spare boxes may be left anywhere.
+	 * 
+	 * @return {@code true} if the level can no longer be solved, {@code false}
+	 *         otherwise
+	 */
+	public boolean isDeadlocked() {
+		return this.deadlocked;
+	}
+
+	/**
+	 * Returns the number of squares whose contents were changed by the last move
+	 * of the player. A move changes at most three squares: the square the player
+	 * left, the square the player moved to, and the square a pushed box moved to.
+	 * A move that fails changes no squares.
+	 * 
+	 * @return the number of squares changed by the last move, from 0 to 3
+	 */
+	public int changedCellCount() {
+		return this.changedCount;
+	}
+
+	/**
+	 * Returns the grid index of a square whose contents were changed by the last
+	 * move of the player.
+	 * 
+	 * @param i the number of a changed square, from 0 to
+	 *          {@code changedCellCount() - 1}
+	 * @return the grid index of the changed square
+	 */
+	public int changedCell(int i) {
+		if (i < 0 || i >= this.changedCount) {
+			throw new IndexOutOfBoundsException(i);
+		}
+		return this.changed[i];
+	}
+
+	/**
+	 * Returns an immutable snapshot of the current position of the player and the
+	 * boxes.
+	 * 
+	 * @return a snapshot of the current position
+	 */
+	public BoardState snapshot() {
+		int[] result = this.boxCells();
+		Arrays.sort(result);
+		return new BoardState(this.playerCell, result);
+	}
+
+	/**
+	 * Moves the player and the boxes to the position of the specified snapshot.
+	 * The snapshot must have been taken from a board holding the same level. The
+	 * moves made so far are forgotten and can no longer be undone.
+	 * 
+	 * @param state a snapshot of a position of this level
+	 * @throws IllegalArgumentException if the snapshot does not describe a
+	 *                                  position of this level
+	 */
+	public void restore(BoardState state) {
+		int[] target = state.boxes();
+		if (target.length != this.boxes.size() || this.player == null) {
+			throw new IllegalArgumentException("the snapshot is not a position of this level");
+		}
+		for (int cell : target) {
+			this.checkFloor(cell);
+		}
+		this.checkFloor(state.playerCell());
+		if (Arrays.binarySearch(target, state.playerCell()) >= 0) {
+			throw new IllegalArgumentException("the snapshot puts the player on a box");
+		}
+
+		for (Box box : this.boxes) {
+			this.cells[this.cellOf(box.location())] &= ~BOX;
+		}
+		for (int i = 0; i < target.length; i++) {
+			this.boxes.get(i).setLocation(this.locations.at(target[i]));
+			this.cells[target[i]] |= BOX;
+			this.boxIds[target[i]] = i;
+		}
+		this.playerCell = state.playerCell();
+		this.player.setLocation(this.locations.at(this.playerCell));
+		this.journalLength = 0;
+		this.journalEnd = 0;
+		this.scanPosition();
+		this.changedCount = 0;
+	}
+
+	/**
+	 * Throws an exception if the specified grid index is not a floor square of
+	 * this board.
+	 */
+	private void checkFloor(int cell) {
+		if (cell < 0 || cell >= this.cells.length || (this.cells[cell] & WALL) != 0) {
+			throw new IllegalArgumentException("the snapshot is not a position of this level");
+		}
+	}
+
+	/**
+	 * Returns a 64-bit Zobrist hash of the current position of the player and the
+	 * boxes. The hash is kept up to date as the player moves, so calling this
+	 * method takes constant time. Two boards of the same size in the same
+	 * position have the same hash.
+	 * 
+	 * @return a hash of the current position
+	 */
+	public long zobristHash() {
+		return this.hash;
+	}
+
+	/**
+	 * Returns a 64-bit Zobrist hash of the current position in which the player
+	 * is replaced by the top-left square the player can reach without pushing a
+	 * box. Positions that only differ in where the player stands within the same
+	 * region of the board have the same normalized hash.
+	 * 
+	 * @return a hash of the current position that does not depend on where the
+	 *         player stands within its region
+	 */
+	public long normalizedHash() {
+		if (this.playerCell < 0) {
+			return this.boxHash;
+		}
+		return this.boxHash ^ this.zobrist.player(this.region().topLeft());
+	}
+
+	/**
+	 * Returns the region the player can reach without pushing a box, filling it
+	 * again if a box has moved since the last fill. The board must have a
+	 * player.
+	 */
+	private Reachability region() {
+		if (this.region == null) {
+			this.region = new Reachability(this);
+		}
+		if (!this.regionValid) {
+			this.region.fill(this.cells, this.playerCell);
+			this.regionValid = true;
+		}
+		return this.region;
+	}
+
+	/**
+	 * Returns {@code true} if the player can walk to the square with the
+	 * specified grid index without pushing a box. The region the player can
+	 * reach is computed when it is first needed and kept until a box moves, so
+	 * most calls take constant time.
+	 * 
+	 * @param cell a grid index
+	 * @return {@code true} if the player can reach the square, {@code false}
+	 *         otherwise
+	 */
+	public boolean isReachable(int cell) {
+		if (this.playerCell < 0 || cell < 0 || cell >= this.cells.length) {
+			return false;
+		}
+		return this.region().contains(cell);
+	}
+
+	/**
+	 * Returns {@code true} if the player can walk to the specified location
+	 * without pushing a box.
+	 * 
+	 * @param loc a location
+	 * @return {@code true} if the player can reach the location, {@code false}
+	 *         otherwise
+	 */
+	public boolean isReachable(Location loc) {
+		return this.isReachable(this.cellOf(loc));
+	}
+
+	/**
+	 * Returns the number of squares the player can walk to without pushing a
+	 * box, including the square the player stands on.
+	 * 
+	 * @return the number of squares the player can reach, or 0 if there is no
+	 *         player
+	 */
+	public int reachableCount() {
+		if (this.playerCell < 0) {
+			return 0;
+		}
+		return this.region().size();
+	}
+
+	/**
+	 * Returns the grid indexes of the boxes in this board, in the same order as
+	 * {@code getBoxes}.
+	 * 
+	 * @return a new array holding the grid index of every box
+	 */
+	int[] boxCells() {
+		int[] result = new int[this.boxes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.cellOf(this.boxes.get(i).location());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns {@code true} if the grid cell at the specified location has any of
+	 * the specified flags set. Locations outside of the board have no flags.
+	 */
+	private boolean hasFlag(Location loc, byte flag) {
+		int cell = this.cellOf(loc);
+		return cell >= 0 && (this.cells[cell] & flag) != 0;
+	}
+
+	/**
+	 * Pushes the box in grid cell {@code from} to the adjacent grid cell
+	 * {@code to} and checks whether the push has made the level unsolvable.
+	 */
+	private void pushBox(int from, int to) {
+		this.moveBox(from, to);
+		if (!this.deadlocked && this.canDeadlock() && this.deadlocks.isDeadlock(this.cells, to)) {
+			this.deadlocked = true;
+			this.deadlockedAt = this.journalLength + 1;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if there are as many boxes as storage locations, so
+	 * that a box on a dead square or frozen away from storage makes the level
+	 * unsolvable. A spare box may end up anywhere.
+	 */
+	private boolean canDeadlock() {
+		return this.boxes.size() == this.storages.size();
+	}
+
+	/**
+	 * Moves the box in grid cell {@code from} to the adjacent grid cell
+	 * {@code to}, keeping the occupancy grid, the hashes, and the count of boxes
+	 * on storage locations in step with the box. The region the player can reach
+	 * has to be filled again.
+	 */
+	private void moveBox(int from, int to) {
+		this.regionValid = false;
+		int id = this.boxIds[from];
+		this.boxes.get(id).moveTo(this.locations.at(to));
+		this.cells[from] &= ~BOX;
+		this.cells[to] |= BOX;
+		if ((this.cells[from] & STORAGE) != 0) {
+			this.boxesOnStorage--;
+		}
+		if ((this.cells[to] & STORAGE) != 0) {
+			this.boxesOnStorage++;
+		}
+		this.boxIds[to] = id;
+		long change = this.zobrist.box(from) ^ this.zobrist.box(to);
+		this.boxHash ^= change;
+		this.hash ^= change;
+	}
+
+	/**
+	 * Moves the player to the adjacent grid cell {@code to}.
+	 */
+	private void movePlayerTo(int to) {
+		this.hash ^= this.zobrist.player(this.playerCell) ^ this.zobrist.player(to);
+		this.playerCell = to;
+		this.player.moveTo(this.locations.at(to));
 	}
 
 	/**
@@ -181,17 +820,28 @@ public class Board {
 
 	/**
 	 * Returns a list of the walls in this board. The order of the walls is
-	 * unspecified in the returned list.
+	 * unspecified in the returned list. A board opened from a level pack only
+	 * makes its walls when they are first asked for.
 	 * 
 	 * @return a list of the walls in this board
 	 */
 	public List<Wall> getWalls() {
+		if (this.walls == null) {
+			this.walls = new ArrayList<Wall>();
+			for (int cell = 0; cell < this.cells.length; cell++) {
+				if ((this.cells[cell] & WALL) != 0) {
+					this.walls.add(new Wall(this.locations.at(cell)));
+				}
+			}
+		}
 		return this.walls;
 	}
 
 	/**
 	 * Returns a list of the boxes in this board. The order of the boxes is
-	 * unspecified in the returned list.
+	 * unspecified in the returned list. Boxes should only be moved using the
+	 * {@code movePlayer} methods of this board so that the board can keep track
+	 * of where they are.
 	 * 
 	 * @return a list of the boxes in this board
 	 */
@@ -228,17 +878,10 @@ public class Board {
 	 *         {@code null} if there is no such object
 	 */
 	public Box getBox(Location loc) {
-		 Iterator<Box> boxIterator = this.boxes.iterator(); 
-		 Box box; 
-		 
-		 while (boxIterator.hasNext()) { 
-			 box = boxIterator.next();
-			 if (box.location().equals(loc)) {
-				 return box;
-			 }
+		if (!this.hasFlag(loc, BOX)) {
+			return null;
 		}
-		 
-		return null;
+		return this.boxes.get(this.boxIds[this.cellOf(loc)]);
 	}
 
 	/**
@@ -251,33 +894,12 @@ public class Board {
 	 *         location, {@code false} otherwise
 	 */
 	public boolean isOccupied(Location loc) {
-
-		Iterator<Box> boxIterator = this.boxes.iterator(); 
-		 Box box; 
-		 
-		 while (boxIterator.hasNext()) {
-			 box = boxIterator.next();
-			 
-			 if (box.location().equals(loc)) {
-				 return true;
-			 }
-		 }
-		 
-		 Iterator<Wall> wallIterator = this.walls.iterator(); 
-		 Wall wall; 
-		 
-		 while (wallIterator.hasNext()) { 
-			 wall = wallIterator.next();
-			 if (wall.location().equals(loc)) {
-				 return true;
-			 }
-		 }
-		 
-		 if (this.player.location().equals(loc)) {
-			 return true;
-		 }
-		 
-		 return false;
+		int cell = this.cellOf(loc);
+		if (cell < 0) {
+			// the player and the boxes cannot leave the board
+			return true;
+		}
+		return (this.cells[cell] & (WALL | BOX)) != 0 || cell == this.playerCell;
 	}
 
 	/**
@@ -305,17 +927,7 @@ public class Board {
 	 *         {@code false} otherwise
 	 */
 	public boolean hasWall(Location loc) {
-		Iterator<Wall> wallIterator = this.walls.iterator(); 
-		Wall wall; 
-		 
-		while (wallIterator.hasNext()) { 
-			 wall = wallIterator.next();
-			 if (wall.location().equals(loc)) {
-				 return true;
-			 }
-		}
-		
-		return false;
+		return this.hasFlag(loc, WALL);
 	}
 
 	/**
@@ -327,18 +939,7 @@ public class Board {
 	 *         otherwise
 	 */
 	public boolean hasBox(Location loc) {
-		Iterator<Box> boxIterator = this.boxes.iterator(); 
-		 Box box; 
-		 
-		 while (boxIterator.hasNext()) { 
-			 box = boxIterator.next();
-			 
-			 if (box.location().equals(loc)) {
-				 return true;
-			 }
-		 }
-		 
-		 return false;
+		return this.hasFlag(loc, BOX);
 	}
 
 	/**
@@ -350,16 +951,7 @@ public class Board {
 	 *         {@code false} otherwise
 	 */
 	public boolean hasStorage(Location loc) {
-		Iterator<Storage> storageIterator = this.storages.iterator(); 
-		 Storage storage; 
-		 
-		 while (storageIterator.hasNext()) { 
-			 storage = storageIterator.next();
-			 if (storage.location().equals(loc)) {
-				 return true;
-			 }
-		 }
-		 return false;
+		return this.hasFlag(loc, STORAGE);
 	}
 
 	/**
@@ -371,34 +963,332 @@ public class Board {
 	 *         {@code false} otherwise
 	 */
 	public boolean hasPlayer(Location loc) {
-		if (this.player.location().equals(loc)) {
-			 return true;
-		 }
-		 return false;
+		return this.cellOf(loc) == this.playerCell && this.playerCell >= 0;
 	}
 
 	/**
 	 * Returns {@code true} if every storage location has a box on it, {@code false}
-	 * otherwise.
+	 * otherwise. This method takes constant time.
 	 * 
 	 * @return {@code true} if every storage location has a box on it, {@code false}
 	 *         otherwise
 	 */
 	public boolean isSolved() {
-		Iterator<Storage> storageIterator = this.storages.iterator(); 
-		 Storage storage; 
-		 
-		 while (storageIterator.hasNext()) { 
-			 storage = storageIterator.next();
-			 if(!hasBox(storage.location())) {
-				 return false;
-			 }
-		 }
-		 
-		 return true;
+		if (!GameEvents.SOLVED_CHECK.isEnabled()) {
+			return this.boxesOnStorage == this.storages.size();
+		}
+		GameEvents.SolvedCheck event = new GameEvents.SolvedCheck();
+		event.begin();
+		boolean solved = this.boxesOnStorage == this.storages.size();
+		event.end();
+		if (event.shouldCommit()) {
+			event.describe(this);
+			event.remaining = this.storages.size() - this.boxesOnStorage;
+			event.solved = solved;
+			event.commit();
+		}
+		return solved;
+	}
+
+	/**
+	 * Returns the number of storage locations that do not have a box on them. The
+	 * count is kept up to date as boxes are pushed, so calling this method takes
+	 * constant time.
+	 * 
+	 * @return the number of storage locations without a box
+	 */
+	public int boxesRemaining() {
+		return this.storages.size() - this.boxesOnStorage;
+	}
+
+	/**
+	 * Moves the player to the adjacent location in the specified direction if
+	 * possible. If there is a box in the adjacent location then the box is pushed
+	 * one further square in the same direction.
+	 * 
+	 * <p>
+	 * Returns {@code false} if the player cannot move in the specified direction
+	 * (leaving the player location unchanged).
+	 * 
+	 * <p>
+	 * The move is recorded in a journal, using four bits per move, so that it can
+	 * be undone. Apart from growing the journal now and then, this method does
+	 * not create any objects, unless a flight recording running has the
+	 * {@code sokoban.Move} event enabled, in which case each move is written as
+	 * an event.
+	 * 
+	 * @param direction one of {@code LEFT}, {@code RIGHT}, {@code UP}, or
+	 *                  {@code DOWN}
+	 * @return true if the player is moved, false otherwise
+	 */
+	public boolean movePlayer(int direction) {
+		if (!GameEvents.MOVE.isEnabled()) {
+			return this.record(direction);
+		}
+		GameEvents.Move event = new GameEvents.Move();
+		event.begin();
+		boolean moved = this.record(direction);
+		event.end();
+		if (event.shouldCommit()) {
+			event.describe(this);
+			event.direction = String.valueOf(LURD.charAt(direction));
+			event.moved = moved;
+			event.pushed = moved && this.changedCount == 3;
+			event.moveCount = this.journalLength;
+			event.commit();
+		}
+		return moved;
+	}
+
+	/**
+	 * Makes a move and records it in the journal. Returns {@code false} if the
+	 * player cannot move in the specified direction.
+	 */
+	private boolean record(int direction) {
+		if (!this.step(direction)) {
+			return false;
+		}
+		if (this.journalLength == 2 * this.journal.length) {
+			this.journal = Arrays.copyOf(this.journal, 2 * this.journal.length);
+		}
+		int i = this.journalLength++;
+		int shift = 4 * (i & 1);
+		int entry = direction | (this.changedCount == 3 ? PUSH : 0);
+		this.journal[i >> 1] = (byte) ((this.journal[i >> 1] & ~(0xF << shift)) | entry << shift);
+		this.journalEnd = this.journalLength;
+		return true;
+	}
+
+	/**
+	 * Makes a move without recording it in the journal. Returns {@code false} if
+	 * the player cannot move in the specified direction.
+	 */
+	private boolean step(int direction) {
+		this.changedCount = 0;
+		int to = this.neighbours[4 * this.playerCell + direction];
+		if (to < 0 || (this.cells[to] & WALL) != 0) {
+			return false;
+		}
+		if ((this.cells[to] & BOX) != 0) {
+			int beyond = this.neighbours[4 * to + direction];
+			if (beyond < 0 || (this.cells[beyond] & (WALL | BOX)) != 0) {
+				return false;
+			}
+			this.pushBox(to, beyond);
+			this.changed[this.changedCount++] = beyond;
+		}
+		this.changed[this.changedCount++] = this.playerCell;
+		this.changed[this.changedCount++] = to;
+		this.movePlayerTo(to);
+		return true;
+	}
+
+	/**
+	 * Returns the journal entry of the move with the specified number.
+	 */
+	private int entry(int i) {
+		return (this.journal[i >> 1] >> 4 * (i & 1)) & 0xF;
+	}
+
+	/**
+	 * Returns the number of moves made since the level was loaded or restored,
+	 * not counting moves that were undone.
+	 * 
+	 * @return the number of moves made
+	 */
+	public int moveCount() {
+		return this.journalLength;
+	}
+
+	/**
+	 * Returns the number of undone moves that can be made again with
+	 * {@code redo}. Making a new move forgets the undone moves.
+	 * 
+	 * @return the number of moves that can be redone
+	 */
+	public int redoCount() {
+		return this.journalEnd - this.journalLength;
+	}
+
+	/**
+	 * Takes back the last move of the player, pulling back the box if the move
+	 * pushed one. Returns {@code false} if there is no move to undo. Undoing a
+	 * move takes constant time.
+	 * 
+	 * @return true if a move is undone, false otherwise
+	 */
+	public boolean undo() {
+		if (this.journalLength == 0) {
+			return false;
+		}
+		int entry = this.entry(--this.journalLength);
+		int direction = entry & 3;
+		int from = this.playerCell;
+		this.changedCount = 0;
+		if ((entry & PUSH) != 0) {
+			int box = this.neighbours[4 * from + direction];
+			this.moveBox(box, from);
+			this.changed[this.changedCount++] = box;
+		}
+		int to = this.neighbours[4 * from + (direction ^ 1)];
+		this.changed[this.changedCount++] = from;
+		this.changed[this.changedCount++] = to;
+		this.movePlayerTo(to);
+		if (this.journalLength < this.deadlockedAt) {
+			this.deadlocked = false;
+			this.deadlockedAt = Integer.MAX_VALUE;
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the last undone move again. Returns {@code false} if there is no
+	 * undone move.
+	 * 
+	 * @return true if a move is redone, false otherwise
+	 */
+	public boolean redo() {
+		if (this.journalLength == this.journalEnd) {
+			return false;
+		}
+		this.step(this.entry(this.journalLength) & 3);
+		this.journalLength++;
+		return true;
+	}
+
+	/**
+	 * Undoes or redoes moves until exactly {@code n} moves have been made. After
+	 * this method returns, {@code changedCellCount} only describes the last
+	 * move that was undone or redone.
+	 * 
+	 * @param n the number of moves to keep, from 0 to
+	 *          {@code moveCount() + redoCount()}
+	 * @throws IllegalArgumentException if {@code n} is out of range
+	 */
+	public void undoTo(int n) {
+		if (n < 0 || n > this.journalEnd) {
+			throw new IllegalArgumentException("there is no move " + n);
+		}
+		while (this.journalLength > n) {
+			this.undo();
+		}
+		while (this.journalLength < n) {
+			this.redo();
+		}
+	}
+
+	/**
+	 * Returns the moves made so far in LURD notation: a lowercase letter for
+	 * each move that did not push a box and an uppercase letter for each push.
+	 * 
+	 * @return the moves made so far
+	 */
+	public String moves() {
+		StringBuilder b = new StringBuilder(this.journalLength);
+		for (int i = 0; i < this.journalLength; i++) {
+			b.append(LURD.charAt(this.entry(i)));
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Makes the moves in the specified string, given in LURD notation, starting
+	 * from the current position. Upper and lower case letters are accepted for
+	 * every move, and whether a move pushes a box only depends on the board.
+	 * Whitespace between the moves is ignored.
+	 * 
+	 * <p>
+	 * The replay stops at the first move that cannot be made. The moves that
+	 * were made are recorded in the journal and can be undone. This method does
+	 * not create any objects apart from the result and a larger journal, and the
+	 * events of its moves while a flight recording has them enabled.
+	 * 
+	 * @param moves the moves in LURD notation
+	 * @return the number of moves and pushes made and whether the board ends up
+	 *         solved
+	 * @throws IllegalArgumentException if the string contains a character that
+	 *                                  is not a move or whitespace
+	 */
+	public ReplayResult replay(CharSequence moves) {
+		int count = 0;
+		int pushes = 0;
+		for (int i = 0; i < moves.length(); i++) {
+			char c = moves.charAt(i);
+			int direction;
+			switch (c) {
+			case 'l':
+			case 'L':
+				direction = LEFT;
+				break;
+			case 'r':
+			case 'R':
+				direction = RIGHT;
+				break;
+			case 'u':
+			case 'U':
+				direction = UP;
+				break;
+			case 'd':
+			case 'D':
+				direction = DOWN;
+				break;
+			default:
+				if (Character.isWhitespace(c)) {
+					continue;
+				}
+				throw new IllegalArgumentException("not a move: '" + c + "'");
+			}
+			if (!this.movePlayer(direction)) {
+				return new ReplayResult(this.isSolved(), count, pushes, i);
+			}
+			count++;
+			if (this.changedCount == 3) {
+				pushes++;
+			}
+		}
+		return new ReplayResult(this.isSolved(), count, pushes, -1);
+	}
+
+	/**
+	 * Returns the solved positions of this level, which are the starting
+	 * positions for a search that pulls the boxes back from the goal. Every box
+	 * is on a storage location, and there is one position for each region of
+	 * the board that the player could be in, with the player on the top-left
+	 * square of the region. The list is empty if the number of boxes and the
+	 * number of storage locations differ.
+	 * 
+	 * @return the solved positions, ordered by player square
+	 */
+	public List<BoardState> goalStates() {
+		List<BoardState> goals = new ArrayList<BoardState>();
+		if (this.boxes.size() != this.storages.size() || this.player == null) {
+			return goals;
+		}
+		byte[] grid = new byte[this.cells.length];
+		int[] stored = new int[this.storages.size()];
+		int k = 0;
+		for (int cell = 0; cell < grid.length; cell++) {
+			grid[cell] = (byte) (this.cells[cell] & ~BOX);
+			if ((grid[cell] & STORAGE) != 0) {
+				grid[cell] |= BOX;
+				stored[k++] = cell;
+			}
+		}
+		Reachability fill = new Reachability(this);
+		boolean[] covered = new boolean[grid.length];
+		for (int cell = 0; cell < grid.length; cell++) {
+			if (covered[cell] || (grid[cell] & (WALL | BOX)) != 0) {
+				continue;
+			}
+			int topLeft = fill.fill(grid, cell);
+			for (int i = 0; i < fill.size(); i++) {
+				covered[fill.cell(i)] = true;
+			}
+			goals.add(new BoardState(topLeft, stored.clone()));
+		}
+		return goals;
 	}
 
-	
 	/**
 	 * Moves the player to the left adjacent location if possible. If there is a box
 	 * in the left adjacent location then the box is pushed to the adjacent location
@@ -412,19 +1302,7 @@ public class Board {
 	 *         otherwise
 	 */
 	public boolean movePlayerLeft() {
-				
-		if (hasBox(player.location().left()) && isFree(player.location().left().left())) {
-	
-			Box movingBox = getBox(player.location().left());
-			movingBox.moveLeft();
-		} 
-		
-		if (isFree(player.location().left())) {
-			this.player.moveLeft();
-			return true;
-		}
-		
-		return false;
+		return this.movePlayer(LEFT);
 	}
 
 	/**
@@ -440,17 +1318,7 @@ public class Board {
 	 *         otherwise
 	 */
 	public boolean movePlayerRight() {
-		if (hasBox(player.location().right()) && isFree(player.location().right().right())) {
-			Box movingBox = getBox(player.location().right());
-			movingBox.moveRight();
-		} 
-		
-		if (isFree(player.location().right())) {
-			this.player.moveRight();
-			return true;
-		}
-		
-		return false;
+		return this.movePlayer(RIGHT);
 	}
 
 	/**
@@ -466,17 +1334,7 @@ public class Board {
 	 *         otherwise
 	 */
 	public boolean movePlayerUp() {
-		if (hasBox(player.location().up()) && isFree(player.location().up().up())) {
-			Box movingBox = getBox(player.location().up());
-			movingBox.moveUp();
-		} 
-		
-		if (isFree(player.location().up())) {
-			this.player.moveUp();
-			return true;
-		}
-		
-		return false;
+		return this.movePlayer(UP);
 	}
 
 	/**
@@ -492,17 +1350,7 @@ public class Board {
 	 *         otherwise
 	 */
 	public boolean movePlayerDown() {
-		if (hasBox(player.location().down()) && isFree(player.location().down().down())) {
-			Box movingBox = getBox(player.location().down());
-			movingBox.moveDown();
-		} 
-		
-		if (isFree(player.location().down())) {
-			this.player.moveDown();
-			return true;
-		}
-		
-		return false;
+		return this.movePlayer(DOWN);
 	}
 	
 	
@@ -515,36 +1363,23 @@ public class Board {
 	@Override
 	public String toString() {
 		// ALREADY DONE FOR YOU
-		StringBuilder b = new StringBuilder();
+		StringBuilder b = new StringBuilder((this.width + 1) * this.height);
 		for (int y = 0; y < this.height; y++) {
 			for (int x = 0; x < this.width; x++) {
-				Location loc = new Location(x, y);
-				if (this.isFree(loc) ) {
-					if (this.hasStorage(loc)) {
-						b.append(".");					
-					}
-					else {
-						b.append(" ");
-					}
+				int cell = y * this.width + x;
+				byte c = this.cells[cell];
+				boolean storage = (c & STORAGE) != 0;
+				if ((c & WALL) != 0) {
+					b.append('#');
 				}
-				else if (this.hasWall(loc)) {
-					b.append("#");
+				else if ((c & BOX) != 0) {
+					b.append(storage ? '*' : '$');
 				}
-				else if (this.hasBox(loc)) {
-					if (this.hasStorage(loc)) {
-						b.append("*");
-					}
-					else {
-						b.append("$");
-					}
+				else if (cell == this.playerCell) {
+					b.append(storage ? '+' : '@');
 				}
-				else if (this.hasPlayer(loc)) {
-					if (this.hasStorage(loc)) {
-						b.append("+");
-					}
-					else {
-						b.append("@");
-					}
+				else {
+					b.append(storage ? '.' : ' ');
 				}
 			}
 			b.append('\n');
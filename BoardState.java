@@ -0,0 +1,130 @@
+package sokoban;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the position of the player and the boxes on a
+ * board.
+ *
+ * <p>
+ * A snapshot only stores the grid index of the player's square and the sorted
+ * grid indexes of the box squares, so it takes a few dozen bytes and can be
+ * copied, compared, and hashed in time proportional to the number of boxes.
+ * The walls and storage locations are not part of a snapshot; a snapshot can
+ * only be restored on a board holding the level it was taken from.
+ *
+ * <p>
+ * Snapshots are ordered by player square and then by box squares.
+ */
+public final class BoardState implements Comparable<BoardState> {
+	private final int player;
+	private final int[] boxes;
+	private final int hash;
+
+	/**
+	 * Initialize a snapshot with the specified player square and box squares. The
+	 * box array must be sorted and is not copied.
+	 *
+	 * @param player the grid index of the player's square
+	 * @param boxes the sorted grid indexes of the box squares
+	 */
+	BoardState(int player, int[] boxes) {
+		this.player = player;
+		this.boxes = boxes;
+		int h = player;
+		for (int box : boxes) {
+			h = h * 0x9E3779B1 + box;
+		}
+		this.hash = h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the grid index of the player's square.
+	 *
+	 * @return the grid index of the player's square
+	 */
+	public int playerCell() {
+		return this.player;
+	}
+
+	/**
+	 * Returns the number of boxes.
+	 *
+	 * @return the number of boxes
+	 */
+	public int boxCount() {
+		return this.boxes.length;
+	}
+
+	/**
+	 * Returns the grid index of the square of a box. The boxes are numbered in
+	 * increasing order of their grid index.
+	 *
+	 * @param i the number of a box, from 0 to {@code boxCount() - 1}
+	 * @return the grid index of the square of the box
+	 */
+	public int boxCell(int i) {
+		return this.boxes[i];
+	}
+
+	/**
+	 * Returns the sorted box squares without copying them. The array must not be
+	 * modified.
+	 */
+	int[] boxes() {
+		return this.boxes;
+	}
+
+	/**
+	 * Compares this snapshot to another snapshot, first by player square and then
+	 * by box squares.
+	 *
+	 * @param other the snapshot to compare to
+	 * @return a negative number, zero, or a positive number if this snapshot comes
+	 *         before, is equal to, or comes after the other snapshot
+	 */
+	@Override
+	public int compareTo(BoardState other) {
+		if (this.player != other.player) {
+			return Integer.compare(this.player, other.player);
+		}
+		return Arrays.compare(this.boxes, other.boxes);
+	}
+
+	/**
+	 * Compares this snapshot to another object for equality. Two snapshots are
+	 * equal if they have the same player square and the same box squares.
+	 *
+	 * @param obj the object to test for equality
+	 * @return true if the object is an equal snapshot, false otherwise
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof BoardState)) {
+			return false;
+		}
+		BoardState other = (BoardState) obj;
+		return this.hash == other.hash && this.player == other.player && Arrays.equals(this.boxes, other.boxes);
+	}
+
+	/**
+	 * Returns a hash code for this snapshot.
+	 *
+	 * @return a hash code for this snapshot
+	 */
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	/**
+	 * Returns a string representation of this snapshot listing the player square
+	 * and the box squares, for example {@code "[12][14, 20, 21]"}.
+	 *
+	 * @return a string representation of this snapshot
+	 */
+	@Override
+	public String toString() {
+		return "[" + this.player + "]" + Arrays.toString(this.boxes);
+	}
+}
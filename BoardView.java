@@ -0,0 +1,236 @@
+package sokoban;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+
+/**
+ * A component that paints a Sokoban board as a grid of square tiles.
+ *
+ * <p>
+ * The tile images are drawn once into a sprite atlas held in an image that is
+ * compatible with the screen, so that painting a tile is a single image copy.
+ * Only the tiles inside the area being repainted are painted, which keeps
+ * painting cheap when the component is shown inside a scroll pane, and
+ * {@code repaintCell} asks for a single tile to be repainted after a move.
+ */
+public class BoardView extends JComponent implements Scrollable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The width and height of a tile in pixels.
+	 */
+	public static final int TILE = 50;
+
+	// the largest number of tiles shown at once before the view scrolls
+	private static final int VISIBLE_COLUMNS = 20;
+	private static final int VISIBLE_ROWS = 12;
+
+	// the positions of the sprites in the atlas
+	private static final int WALL_SPRITE = 0;
+	private static final int STORAGE_SPRITE = 1;
+	private static final int BOX_SPRITE = 2;
+	private static final int BOX_ON_STORAGE_SPRITE = 3;
+	private static final int PLAYER_SPRITE = 4;
+
+	private final BufferedImage atlas;
+	private Board board;
+	private long moveTime;
+
+	/**
+	 * Initialize a view that paints tiles using the specified icons. A
+	 * {@code null} icon leaves its tiles empty.
+	 *
+	 * @param wall the icon of a wall
+	 * @param storage the icon of a storage location
+	 * @param box the icon of a box
+	 * @param boxOnStorage the icon of a box on a storage location
+	 * @param player the icon of the player
+	 */
+	public BoardView(ImageIcon wall, ImageIcon storage, ImageIcon box, ImageIcon boxOnStorage, ImageIcon player) {
+		this.atlas = createAtlas(5);
+		Graphics2D g = this.atlas.createGraphics();
+		drawSprite(g, WALL_SPRITE, wall);
+		drawSprite(g, STORAGE_SPRITE, storage);
+		drawSprite(g, BOX_SPRITE, box);
+		drawSprite(g, BOX_ON_STORAGE_SPRITE, boxOnStorage);
+		drawSprite(g, PLAYER_SPRITE, player);
+		g.dispose();
+		this.setOpaque(true);
+	}
+
+	private static BufferedImage createAtlas(int sprites) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage(sprites * TILE, TILE, BufferedImage.TYPE_INT_ARGB);
+		}
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+				.getDefaultConfiguration();
+		return gc.createCompatibleImage(sprites * TILE, TILE, Transparency.TRANSLUCENT);
+	}
+
+	/**
+	 * Draws an icon centred in its place in the atlas.
+	 */
+	private static void drawSprite(Graphics2D g, int sprite, ImageIcon icon) {
+		if (icon == null) {
+			return;
+		}
+		int x = sprite * TILE + (TILE - icon.getIconWidth()) / 2;
+		int y = (TILE - icon.getIconHeight()) / 2;
+		g.drawImage(icon.getImage(), x, y, null);
+	}
+
+	/**
+	 * Shows the specified board in this view and repaints the whole view.
+	 *
+	 * @param board the board to show
+	 */
+	public void setBoard(Board board) {
+		this.board = board;
+		this.setPreferredSize(new Dimension(board.width() * TILE, board.height() * TILE));
+		this.revalidate();
+		this.repaint();
+	}
+
+	/**
+	 * Repaints the tile of the square with the specified grid index.
+	 *
+	 * @param cell a grid index of the board shown in this view
+	 */
+	public void repaintCell(int cell) {
+		int x = cell % this.board.width();
+		int y = cell / this.board.width();
+		this.repaint(x * TILE, y * TILE, TILE, TILE);
+	}
+
+	/**
+	 * Notes that the board was changed by a move made at the specified time, so
+	 * that the next paint records in {@code GameMetrics} how long the move took
+	 * to show. Only the earliest move since the last paint is kept.
+	 *
+	 * @param time the time of the move from {@code System.nanoTime}
+	 */
+	public void moveMade(long time) {
+		if (this.moveTime == 0) {
+			this.moveTime = time;
+		}
+	}
+
+	/**
+	 * Returns the grid index of the square under the specified point of this
+	 * view, or -1 if the point is not over the board.
+	 *
+	 * @param x the horizontal position in pixels
+	 * @param y the vertical position in pixels
+	 * @return the grid index of the square under the point, or -1
+	 */
+	public int cellAt(int x, int y) {
+		if (this.board == null || x < 0 || y < 0) {
+			return -1;
+		}
+		int column = x / TILE;
+		int row = y / TILE;
+		if (column >= this.board.width() || row >= this.board.height()) {
+			return -1;
+		}
+		return row * this.board.width() + column;
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+		}
+		g.setColor(this.getBackground());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		if (this.board == null) {
+			return;
+		}
+
+		// only paint the tiles that overlap the clip
+		GameEvents.Paint event = new GameEvents.Paint();
+		event.begin();
+		int drawn = 0;
+		int x0 = Math.max(0, clip.x / TILE);
+		int y0 = Math.max(0, clip.y / TILE);
+		int x1 = Math.min(this.board.width() - 1, (clip.x + clip.width - 1) / TILE);
+		int y1 = Math.min(this.board.height() - 1, (clip.y + clip.height - 1) / TILE);
+		int playerCell = this.board.playerCell();
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int cell = y * this.board.width() + x;
+				int sprite;
+				if (this.board.hasWall(cell)) {
+					sprite = WALL_SPRITE;
+				}
+				else if (cell == playerCell) {
+					sprite = PLAYER_SPRITE;
+				}
+				else if (this.board.hasBox(cell)) {
+					sprite = this.board.hasStorage(cell) ? BOX_ON_STORAGE_SPRITE : BOX_SPRITE;
+				}
+				else if (this.board.hasStorage(cell)) {
+					sprite = STORAGE_SPRITE;
+				}
+				else {
+					continue;
+				}
+				int dx = x * TILE;
+				int dy = y * TILE;
+				int sx = sprite * TILE;
+				g.drawImage(this.atlas, dx, dy, dx + TILE, dy + TILE, sx, 0, sx + TILE, TILE, null);
+				drawn++;
+			}
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.describe(this.board);
+			event.cells = Math.max(0, x1 - x0 + 1) * Math.max(0, y1 - y0 + 1);
+			event.drawn = drawn;
+			event.commit();
+		}
+		if (this.moveTime != 0) {
+			long now = System.nanoTime();
+			GameMetrics.get().repainted(now, now - this.moveTime);
+			this.moveTime = 0;
+		}
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		Dimension size = this.getPreferredSize();
+		return new Dimension(Math.min(size.width, VISIBLE_COLUMNS * TILE), Math.min(size.height, VISIBLE_ROWS * TILE));
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return TILE;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		int visible = orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+		return Math.max(TILE, visible - TILE);
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return false;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+}
@@ -38,6 +38,17 @@ public class Box {
 		return false;
 	}
 
+	/**
+	 * Puts the box on the specified location, which does not have to be adjacent
+	 * to the box's current location. Used by {@code Board} to restore a
+	 * snapshot.
+	 * 
+	 * @param loc the new location of this box
+	 */
+	void setLocation(Location loc) {
+		this.loc = loc;
+	}
+
 	/**
 	 * Move the box to the adjacent location to the left, changing
 	 * the box's location.
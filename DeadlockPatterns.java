@@ -0,0 +1,461 @@
+package sokoban;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A database of small groups of boxes that can never all be pushed to storage
+ * locations, whatever the rest of the position looks like.
+ *
+ * <p>
+ * The groups are found by looking at every window of 2 by 3 or 3 by 2 squares
+ * that contains a wall, and at every set of two to four boxes on the floor
+ * squares of the window. Sets that the dead squares or the freeze check of
+ * {@code Deadlocks} already recognise, sets that contain a smaller deadlocked
+ * set, and sets whose boxes all stand on storage locations are skipped. Each
+ * remaining set is solved on its own, with the other boxes taken off the
+ * board, from every region of the board the player could be in. If no box of
+ * the set can be pushed onto a storage location in every way, the set is a
+ * deadlock: adding more boxes only takes away room. A search that runs over its
+ * budget counts as solvable, so the database never reports a false deadlock.
+ *
+ * <p>
+ * The patterns only depend on the walls and storage locations, so they are
+ * saved in a file named after a hash of those and read back, memory-mapped,
+ * the next time the same level is solved. The file holds a header, an index
+ * with the position of the patterns for every square, and for each square the
+ * patterns that contain it, each as a count followed by the other squares of
+ * the pattern.
+ *
+ * <p>
+ * Instances are read-only once loaded and may be shared between threads.
+ */
+class DeadlockPatterns {
+
+	private static final int MAGIC = 0x534B4450; // "SKDP"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 6;
+	private static final int MAX_BOXES = 4;
+	private static final int BUDGET = 2000;
+
+	private final IntBuffer data;
+	private final int cells;
+	private final int count;
+
+	private DeadlockPatterns(IntBuffer data) {
+		this.data = data;
+		this.cells = data.get(4);
+		this.count = data.get(5);
+	}
+
+	/**
+	 * Returns the patterns of the level on the specified board, reading them from
+	 * the specified directory if they have been generated before and generating
+	 * and saving them otherwise.
+	 *
+	 * @param board the board holding the level
+	 * @param directory the directory the pattern files are kept in
+	 * @return the patterns of the level
+	 * @throws IOException if the pattern file cannot be read or written
+	 */
+	static DeadlockPatterns load(Board board, Path directory) throws IOException {
+		long key = levelHash(board);
+		Path file = directory.resolve(String.format("%016x.dlp", key));
+		if (Files.isRegularFile(file)) {
+			try {
+				DeadlockPatterns patterns = map(file);
+				if (patterns != null && patterns.key() == key && patterns.cells == board.width() * board.height()) {
+					return patterns;
+				}
+			}
+			catch (IOException x) {
+				// a damaged file is generated again
+			}
+		}
+		int[] table = generate(board, key);
+		Files.createDirectories(directory);
+		// write to a temporary file first so that other solvers never see half a file
+		Path temp = Files.createTempFile(directory, "patterns", ".tmp");
+		ByteBuffer bytes = ByteBuffer.allocate(4 * table.length).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.asIntBuffer().put(table);
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return map(file);
+	}
+
+	/**
+	 * Maps a pattern file into memory. Returns {@code null} if the file is not a
+	 * pattern file of the current version.
+	 *
+	 * @throws IOException if the file cannot be read or is truncated or damaged
+	 */
+	private static DeadlockPatterns map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < 4 * HEADER_INTS || size % 4 != 0) {
+				return null;
+			}
+			IntBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN)
+					.asIntBuffer();
+			if (data.get(0) != MAGIC || data.get(1) != VERSION) {
+				return null;
+			}
+			check(data, file);
+			return new DeadlockPatterns(data);
+		}
+	}
+
+	/**
+	 * Checks that the index and every pattern of a mapped pattern file lie
+	 * inside the file and only name squares of the board, so that
+	 * {@code matches} never reads past the end of the file or the grid.
+	 */
+	private static void check(IntBuffer data, Path file) throws IOException {
+		int cells = data.get(4);
+		if (cells < 0 || data.limit() - HEADER_INTS - 1 < cells) {
+			throw new IOException(file + " is truncated");
+		}
+		int base = HEADER_INTS + cells + 1;
+		int room = data.limit() - base;
+		int offset = data.get(HEADER_INTS);
+		if (offset != 0) {
+			throw new IOException(file + " has a damaged index");
+		}
+		for (int cell = 0; cell < cells; cell++) {
+			int end = data.get(HEADER_INTS + cell + 1);
+			if (end < offset || end > room) {
+				throw new IOException(file + " has a damaged index");
+			}
+			int i = offset;
+			while (i < end) {
+				int others = data.get(base + i++);
+				if (others < 0 || others > end - i) {
+					throw new IOException(file + " has a damaged pattern");
+				}
+				for (int k = 0; k < others; k++) {
+					int square = data.get(base + i + k);
+					if (square < 0 || square >= cells) {
+						throw new IOException(file + " has a damaged pattern");
+					}
+				}
+				i += others;
+			}
+			offset = end;
+		}
+	}
+
+	private long key() {
+		return ((long) this.data.get(2) << 32) | (this.data.get(3) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the number of patterns.
+	 */
+	int size() {
+		return this.count;
+	}
+
+	/**
+	 * Returns {@code true} if the box in the specified cell of the grid is part
+	 * of a deadlocked pattern, that is, if every other square of some pattern
+	 * containing the box has a box on it.
+	 *
+	 * @param cells a grid of {@code Board} cell flags
+	 * @param box the grid index of a box
+	 * @return {@code true} if the box is part of a deadlocked pattern
+	 */
+	boolean matches(byte[] cells, int box) {
+		int i = HEADER_INTS + this.cells + 1 + this.data.get(HEADER_INTS + box);
+		int end = HEADER_INTS + this.cells + 1 + this.data.get(HEADER_INTS + box + 1);
+		while (i < end) {
+			int others = this.data.get(i++);
+			boolean all = true;
+			for (int k = 0; k < others; k++) {
+				if ((cells[this.data.get(i + k)] & Board.BOX) == 0) {
+					all = false;
+					break;
+				}
+			}
+			if (all) {
+				return true;
+			}
+			i += others;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a hash of the size, the walls, and the storage locations of the
+	 * level on the specified board.
+	 */
+	static long levelHash(Board board) {
+		long h = 0xCBF29CE484222325L;
+		h = (h ^ board.width()) * 0x100000001B3L;
+		h = (h ^ board.height()) * 0x100000001B3L;
+		byte[] cells = board.cellFlags();
+		for (byte c : cells) {
+			h = (h ^ (c & (Board.WALL | Board.STORAGE))) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Finds the patterns of a level and returns the contents of a pattern file.
+	 */
+	private static int[] generate(Board board, long key) {
+		int width = board.width();
+		int n = width * board.height();
+		SearchSpace space = new SearchSpace(board);
+		Deadlocks deadlocks = board.deadlocks();
+		List<int[]> found = new ArrayList<int[]>();
+		Set<List<Integer>> seen = new HashSet<List<Integer>>();
+
+		for (int boxes = 2; boxes <= MAX_BOXES; boxes++) {
+			for (int cell = 0; cell < n; cell++) {
+				for (int shape = 0; shape < 2; shape++) {
+					int columns = shape == 0 ? 3 : 2;
+					int rows = shape == 0 ? 2 : 3;
+					int[] floor = window(board, cell, columns, rows);
+					if (floor == null) {
+						continue;
+					}
+					for (int[] set : subsets(floor, boxes)) {
+						List<Integer> id = toList(set);
+						if (seen.add(id) && isNewDeadlock(space, deadlocks, board, set, found)) {
+							found.add(set);
+						}
+					}
+				}
+			}
+		}
+
+		// lay the patterns out by square: every pattern is listed under each of its squares
+		List<List<int[]>> bySquare = new ArrayList<List<int[]>>(n);
+		for (int cell = 0; cell < n; cell++) {
+			bySquare.add(new ArrayList<int[]>());
+		}
+		int entries = 0;
+		for (int[] set : found) {
+			for (int cell : set) {
+				bySquare.get(cell).add(set);
+				entries += set.length;
+			}
+		}
+		int[] table = new int[HEADER_INTS + n + 1 + entries];
+		table[0] = MAGIC;
+		table[1] = VERSION;
+		table[2] = (int) (key >>> 32);
+		table[3] = (int) key;
+		table[4] = n;
+		table[5] = found.size();
+		int offset = 0;
+		int base = HEADER_INTS + n + 1;
+		for (int cell = 0; cell < n; cell++) {
+			table[HEADER_INTS + cell] = offset;
+			for (int[] set : bySquare.get(cell)) {
+				table[base + offset++] = set.length - 1;
+				for (int other : set) {
+					if (other != cell) {
+						table[base + offset++] = other;
+					}
+				}
+			}
+		}
+		table[HEADER_INTS + n] = offset;
+		return table;
+	}
+
+	/**
+	 * Returns the floor squares of the window with the specified top-left square
+	 * and size that are not dead, or {@code null} if the window does not fit on
+	 * the board or does not contain a wall.
+	 */
+	private static int[] window(Board board, int corner, int columns, int rows) {
+		int width = board.width();
+		if (corner % width + columns > width || corner / width + rows > board.height()) {
+			return null;
+		}
+		boolean wall = false;
+		int[] floor = new int[columns * rows];
+		int count = 0;
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0; x < columns; x++) {
+				int cell = corner + y * width + x;
+				if (board.hasWall(cell)) {
+					wall = true;
+				}
+				else if (!board.deadlocks().isDead(cell)) {
+					floor[count++] = cell;
+				}
+			}
+		}
+		return wall ? Arrays.copyOf(floor, count) : null;
+	}
+
+	/**
+	 * Returns every sorted subset of the specified size of the squares.
+	 */
+	private static List<int[]> subsets(int[] squares, int size) {
+		List<int[]> result = new ArrayList<int[]>();
+		int[] pick = new int[size];
+		subsets(squares, 0, pick, 0, result);
+		return result;
+	}
+
+	private static void subsets(int[] squares, int from, int[] pick, int picked, List<int[]> result) {
+		if (picked == pick.length) {
+			int[] set = pick.clone();
+			Arrays.sort(set);
+			result.add(set);
+			return;
+		}
+		for (int i = from; i < squares.length; i++) {
+			pick[picked] = squares[i];
+			subsets(squares, i + 1, pick, picked + 1, result);
+		}
+	}
+
+	private static List<Integer> toList(int[] set) {
+		List<Integer> list = new ArrayList<Integer>(set.length);
+		for (int cell : set) {
+			list.add(cell);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns {@code true} if the boxes on the specified squares are deadlocked
+	 * and the deadlock is not already recognised in another way.
+	 */
+	private static boolean isNewDeadlock(SearchSpace space, Deadlocks deadlocks, Board board, int[] set,
+			List<int[]> found) {
+		boolean stored = true;
+		for (int cell : set) {
+			stored &= board.hasStorage(cell);
+		}
+		if (stored) {
+			return false;
+		}
+		for (int[] pattern : found) {
+			if (contains(set, pattern)) {
+				return false;
+			}
+		}
+		byte[] cells = board.cellFlags();
+		for (int cell = 0; cell < cells.length; cell++) {
+			cells[cell] &= ~Board.BOX;
+		}
+		for (int cell : set) {
+			cells[cell] |= Board.BOX;
+		}
+		for (int cell : set) {
+			if (deadlocks.isDeadlock(cells, cell)) {
+				return false;
+			}
+		}
+
+		// the player may start next to any of the boxes
+		Set<Integer> regions = new HashSet<Integer>();
+		space.placeBoxes(set, true);
+		List<Integer> starts = new ArrayList<Integer>();
+		for (int cell : set) {
+			for (int d = 0; d < 4; d++) {
+				int side = board.neighbour(cell, d);
+				if (side >= 0 && (cells[side] & (Board.WALL | Board.BOX)) == 0 && regions.add(space.reach(side))) {
+					starts.add(side);
+				}
+			}
+		}
+		space.placeBoxes(set, false);
+		for (int start : starts) {
+			if (solvable(space, set, start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns {@code true} if every square of {@code pattern} is in {@code set}.
+	 * Both arrays are sorted.
+	 */
+	private static boolean contains(int[] set, int[] pattern) {
+		for (int cell : pattern) {
+			if (Arrays.binarySearch(set, cell) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns {@code true} if the boxes can all be pushed onto storage locations
+	 * with the player starting on the specified square, or if the search runs
+	 * over its budget.
+	 */
+	private static boolean solvable(SearchSpace space, int[] boxes, int player) {
+		Board board = space.board();
+		space.placeBoxes(boxes, true);
+		BoardState root = new BoardState(space.reach(player), boxes);
+		space.placeBoxes(boxes, false);
+		Set<BoardState> visited = new HashSet<BoardState>();
+		ArrayDeque<BoardState> queue = new ArrayDeque<BoardState>();
+		visited.add(root);
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			if (visited.size() > BUDGET) {
+				return true;
+			}
+			BoardState state = queue.poll();
+			int[] current = state.boxes();
+			space.placeBoxes(current, true);
+			space.reach(state.playerCell());
+			for (int push : space.pushes(current)) {
+				int i = push / 4;
+				int box = current[i];
+				int to = board.neighbour(box, push % 4);
+				int[] next = SearchSpace.moveBox(current, i, to);
+				if (allStored(board, next)) {
+					space.placeBoxes(current, false);
+					return true;
+				}
+				space.moveBox(box, to);
+				if (!space.isDeadlock(to)) {
+					BoardState child = new BoardState(space.reach(box), next);
+					if (visited.add(child)) {
+						queue.add(child);
+					}
+				}
+				space.moveBox(to, box);
+			}
+			space.placeBoxes(current, false);
+		}
+		return false;
+	}
+
+	private static boolean allStored(Board board, int[] boxes) {
+		for (int box : boxes) {
+			if (!board.hasStorage(box)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
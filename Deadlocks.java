@@ -0,0 +1,157 @@
+package sokoban;
+
+/**
+ * Tables for recognising boxes that can never be moved to a storage location.
+ *
+ * <p>
+ * A dead square is a square from which a box can never be pushed to any
+ * storage location, no matter where the other boxes are. The dead squares only
+ * depend on the walls and the storage locations, so they are computed once for
+ * a level: a box can be pushed from a square to a storage location exactly when
+ * it can be pulled from the storage location back to the square, so every
+ * square that cannot be reached by pulling a box away from a storage location
+ * is dead.
+ *
+ * <p>
+ * A freeze deadlock happens when a box that is not on a storage location can no
+ * longer be pushed in either direction along both axes because it is blocked by
+ * walls, dead squares, or other boxes that are themselves frozen.
+ *
+ * <p>
+ * The freeze check works on a grid of {@code Board} cell flags and temporarily
+ * changes the flags of the boxes it looks at, restoring them before it returns.
+ * Instances hold no other state and may be shared between threads as long as
+ * each thread uses its own grid.
+ */
+class Deadlocks {
+	private final Board board;
+	private final boolean[] dead;
+
+	/**
+	 * Computes the dead squares of the level on the specified board. Only the
+	 * walls and storage locations of the board are used.
+	 *
+	 * @param board the board holding the level
+	 */
+	Deadlocks(Board board) {
+		this.board = board;
+		int n = board.width() * board.height();
+		this.dead = new boolean[n];
+
+		// pull boxes away from every storage location at once
+		boolean[] live = new boolean[n];
+		int[] queue = new int[n];
+		int tail = 0;
+		for (int cell = 0; cell < n; cell++) {
+			if (board.hasStorage(cell)) {
+				live[cell] = true;
+				queue[tail++] = cell;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int cell = queue[head];
+			for (int d = 0; d < 4; d++) {
+				// the box moves one square and the player steps back one more
+				int to = board.neighbour(cell, d);
+				int player = to < 0 ? -1 : board.neighbour(to, d);
+				if (player >= 0 && !live[to] && !board.hasWall(to) && !board.hasWall(player)) {
+					live[to] = true;
+					queue[tail++] = to;
+				}
+			}
+		}
+		for (int cell = 0; cell < n; cell++) {
+			this.dead[cell] = !live[cell] && !board.hasWall(cell);
+		}
+	}
+
+	/**
+	 * Uses the specified dead squares, worked out earlier for the same level,
+	 * for the level on the specified board.
+	 *
+	 * @param board the board holding the level
+	 * @param deadBits a bit set over the grid indexes of the dead squares
+	 */
+	Deadlocks(Board board, long[] deadBits) {
+		this.board = board;
+		int n = board.width() * board.height();
+		this.dead = new boolean[n];
+		for (int cell = 0; cell < n; cell++) {
+			this.dead[cell] = (deadBits[cell >> 6] & 1L << cell) != 0;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if a box on the square with the specified grid index
+	 * can never be pushed to a storage location.
+	 *
+	 * @param cell a grid index
+	 * @return {@code true} if the square is a dead square, {@code false} otherwise
+	 */
+	boolean isDead(int cell) {
+		return this.dead[cell];
+	}
+
+	/**
+	 * Returns {@code true} if the box in the specified cell of the grid can no
+	 * longer be moved to a storage location, either because it is on a dead
+	 * square or because it is part of a group of frozen boxes that are not all
+	 * on storage locations.
+	 *
+	 * @param cells a grid of {@code Board} cell flags
+	 * @param box the grid index of a box
+	 * @return {@code true} if the box is deadlocked, {@code false} otherwise
+	 */
+	boolean isDeadlock(byte[] cells, int box) {
+		if (this.dead[box]) {
+			return true;
+		}
+		return this.frozen(cells, box) > 0;
+	}
+
+	/**
+	 * Returns -1 if the box in the specified cell is not frozen, otherwise the
+	 * number of boxes not on a storage location that are frozen along with it.
+	 * The box is treated as a wall while its neighbours are looked at.
+	 */
+	private int frozen(byte[] cells, int box) {
+		byte saved = cells[box];
+		cells[box] |= Board.WALL;
+		int horizontal = this.blocked(cells, box, Board.LEFT, Board.RIGHT);
+		int vertical = horizontal < 0 ? -1 : this.blocked(cells, box, Board.UP, Board.DOWN);
+		cells[box] = saved;
+		if (vertical < 0) {
+			return -1;
+		}
+		return horizontal + vertical + ((saved & Board.STORAGE) == 0 ? 1 : 0);
+	}
+
+	/**
+	 * Returns -1 if the box in the specified cell can be pushed along the axis
+	 * given by directions {@code a} and {@code b}, otherwise the number of boxes
+	 * not on a storage location that are frozen by blocking it.
+	 */
+	private int blocked(byte[] cells, int box, int a, int b) {
+		int p = this.board.neighbour(box, a);
+		int q = this.board.neighbour(box, b);
+		if (p < 0 || q < 0 || (cells[p] & Board.WALL) != 0 || (cells[q] & Board.WALL) != 0) {
+			return 0;
+		}
+		if (this.dead[p] && this.dead[q]) {
+			return 0;
+		}
+		if ((cells[p] & Board.BOX) != 0) {
+			int frozen = this.frozen(cells, p);
+			if (frozen >= 0) {
+				return frozen;
+			}
+		}
+		if ((cells[q] & Board.BOX) != 0) {
+			int frozen = this.frozen(cells, q);
+			if (frozen >= 0) {
+				return frozen;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,626 @@
+package sokoban;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A class that finds a solution with the fewest pushes for a Sokoban level
+ * whose push states do not fit in memory, by keeping them on disk.
+ *
+ * <p>
+ * The solver searches the same push states as {@code Solver}, one layer of
+ * pushes at a time, like {@code ParallelSolver}. Each layer is kept in a file
+ * of its own in a work directory, holding the states of the layer packed as
+ * fixed-size records in sorted order. A layer is read through memory-mapped
+ * windows and expanded into a buffer of bounded size; whenever the buffer is
+ * full it is sorted and written out as a run. The runs are then merged into the
+ * next layer, dropping states that occur in more than one run or in any earlier
+ * layer, which are read alongside in the same order. Only the buffer and one
+ * window per open file are in memory at any time.
+ *
+ * <p>
+ * A layer file is only given its final name once it is complete, so a search
+ * that was stopped, or crashed, can be resumed by running the solver again on
+ * the same work directory: it carries on from the last complete layer. No
+ * parents are stored; the pushes of the solution are found by going back
+ * through the layers and looking for a state with a push that leads to the
+ * state found so far.
+ */
+public class ExternalSolver {
+
+	private static final int MAGIC = 0x534F4B42;
+	private static final int WINDOW = 1 << 24;
+
+	private final Board board;
+	private final Path directory;
+	private int bufferSize = 1 << 20;
+	private DeadlockPatterns patterns;
+
+	private int squareBytes;
+	private int recordBytes;
+	private int resumedAt;
+	private int layers;
+	private long layerSize;
+	private long nodesExpanded;
+	private long elapsedNanos;
+	private long peakMemory;
+
+	/**
+	 * Initialize a solver for the level on the specified board that keeps its
+	 * layers in the specified directory. The directory is created if it does not
+	 * exist. The board is not changed by the solver.
+	 *
+	 * @param board the board to solve
+	 * @param directory the work directory of the search
+	 */
+	public ExternalSolver(Board board, Path directory) {
+		this.board = board;
+		this.directory = directory;
+	}
+
+	/**
+	 * Sets the number of states expanded into memory before they are sorted and
+	 * written to disk.
+	 *
+	 * @param states the number of states in the buffer
+	 * @throws IllegalArgumentException if {@code states} is less than 1
+	 */
+	public void setBufferSize(int states) {
+		if (states < 1) {
+			throw new IllegalArgumentException("the buffer must hold at least one state");
+		}
+		this.bufferSize = states;
+	}
+
+	/**
+	 * Makes the solver also prune states that contain a known deadlock pattern.
+	 * The patterns of the level are read from the specified directory, or
+	 * generated and saved there if this level has not been seen before.
+	 * Patterns are only used when there are as many boxes as storage locations.
+	 *
+	 * @param directory the directory the pattern files are kept in
+	 * @throws IOException if the pattern file cannot be read or written
+	 */
+	public void loadDeadlockPatterns(Path directory) throws IOException {
+		if (this.board.getBoxes().size() == this.board.getStorage().size()) {
+			this.patterns = DeadlockPatterns.load(this.board, directory);
+		}
+	}
+
+	/**
+	 * Searches for a solution of the level with the fewest pushes, carrying on
+	 * from the layers already in the work directory. Returns {@code null} if the
+	 * level cannot be solved.
+	 *
+	 * @return a solution in LURD notation, or {@code null} if there is no solution
+	 * @throws IOException if the work directory cannot be read or written, or
+	 *                     holds the search of another level
+	 */
+	public String solve() throws IOException {
+		long start = System.nanoTime();
+		this.nodesExpanded = 0;
+		this.peakMemory = 0;
+		try {
+			return this.search();
+		}
+		finally {
+			this.elapsedNanos = System.nanoTime() - start;
+			this.sampleMemory();
+		}
+	}
+
+	/**
+	 * Returns the number of states expanded by the last call to {@code solve},
+	 * not counting the layers that were done before it resumed.
+	 *
+	 * @return the number of states expanded
+	 */
+	public long nodesExpanded() {
+		return this.nodesExpanded;
+	}
+
+	/**
+	 * Returns the number of states expanded per second by the last call to
+	 * {@code solve}.
+	 *
+	 * @return the number of states expanded per second
+	 */
+	public double nodesPerSecond() {
+		if (this.elapsedNanos == 0) {
+			return 0;
+		}
+		return this.nodesExpanded * 1e9 / this.elapsedNanos;
+	}
+
+	/**
+	 * Returns the largest amount of heap memory in bytes that was seen in use
+	 * during the last call to {@code solve}.
+	 *
+	 * @return the peak heap memory use in bytes
+	 */
+	public long peakMemory() {
+		return this.peakMemory;
+	}
+
+	/**
+	 * Returns the number of the layer the last call to {@code solve} resumed
+	 * from, or 0 if it started from the initial position.
+	 *
+	 * @return the layer the search resumed from
+	 */
+	public int resumedAt() {
+		return this.resumedAt;
+	}
+
+	/**
+	 * Returns the number of complete layers in the work directory after the last
+	 * call to {@code solve}.
+	 *
+	 * @return the number of complete layers
+	 */
+	public int layers() {
+		return this.layers;
+	}
+
+	private String search() throws IOException {
+		SearchSpace space = new SearchSpace(this.board);
+		int[] boxes = space.initialBoxes();
+		if (boxes == null) {
+			return null;
+		}
+		space.placeBoxes(boxes, true);
+		BoardState root = new BoardState(space.reach(this.board.playerCell()), boxes);
+		space.placeBoxes(boxes, false);
+		if (space.isGoal(boxes)) {
+			return "";
+		}
+		space.setPatterns(this.patterns);
+		this.squareBytes = this.board.width() * this.board.height() <= 1 << 16 ? 2 : 4;
+		this.recordBytes = (boxes.length + 1) * this.squareBytes;
+
+		Files.createDirectories(this.directory);
+		this.checkHeader(root);
+		this.removePartialFiles();
+		int depth = 0;
+		while (Files.exists(this.layer(depth + 1))) {
+			depth++;
+		}
+		if (depth == 0 && !Files.exists(this.layer(0))) {
+			this.writeLayer(0, new BoardState[] { root }, 1);
+		}
+		this.resumedAt = depth;
+		this.layers = depth + 1;
+
+		BoardState goal = this.findGoal(space, depth);
+		while (goal == null) {
+			List<Path> runs = this.expand(space, depth);
+			this.sampleMemory();
+			goal = this.merge(space, runs, depth + 1);
+			for (Path run : runs) {
+				Files.delete(run);
+			}
+			depth++;
+			this.layers = depth + 1;
+			if (this.layerSize == 0) {
+				return null;
+			}
+		}
+		return this.moves(space, goal, depth);
+	}
+
+	/**
+	 * Expands every state of a layer and writes the children to sorted runs.
+	 */
+	private List<Path> expand(SearchSpace space, int depth) throws IOException {
+		List<Path> runs = new ArrayList<Path>();
+		BoardState[] buffer = new BoardState[this.bufferSize];
+		int n = 0;
+		try (StateReader in = new StateReader(this.layer(depth))) {
+			for (BoardState state = in.head(); state != null; state = in.advance()) {
+				this.nodesExpanded++;
+				int[] boxes = state.boxes();
+				space.placeBoxes(boxes, true);
+				space.reach(state.playerCell());
+				for (int push : space.pushes(boxes)) {
+					BoardState child = this.push(space, boxes, push);
+					if (child == null) {
+						continue;
+					}
+					if (n == buffer.length) {
+						runs.add(this.writeRun(depth + 1, runs.size(), buffer, n));
+						n = 0;
+					}
+					buffer[n++] = child;
+				}
+				space.placeBoxes(boxes, false);
+			}
+		}
+		runs.add(this.writeRun(depth + 1, runs.size(), buffer, n));
+		return runs;
+	}
+
+	/**
+	 * Makes a push on the scratch board, which holds the specified boxes with the
+	 * player's region marked, and returns the state it leads to, or {@code null}
+	 * if the push causes a deadlock. The scratch board is left as it was.
+	 */
+	private BoardState push(SearchSpace space, int[] boxes, int push) {
+		int i = push / 4;
+		int box = boxes[i];
+		int to = this.board.neighbour(box, push % 4);
+		space.moveBox(box, to);
+		BoardState child = null;
+		if (!space.isDeadlock(to)) {
+			child = new BoardState(space.reach(box), SearchSpace.moveBox(boxes, i, to));
+		}
+		space.moveBox(to, box);
+		return child;
+	}
+
+	/**
+	 * Sorts the buffer and writes the distinct states in it to a run file.
+	 */
+	private Path writeRun(int depth, int number, BoardState[] buffer, int n) throws IOException {
+		Arrays.sort(buffer, 0, n);
+		Path run = this.directory.resolve(String.format("run-%05d-%d.tmp", depth, number));
+		try (DataOutputStream out = this.create(run)) {
+			for (int i = 0; i < n; i++) {
+				if (i == 0 || !buffer[i].equals(buffer[i - 1])) {
+					this.write(out, buffer[i]);
+				}
+				buffer[i] = null;
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * Merges the runs into the layer with the specified number, leaving out the
+	 * states found in earlier layers, and returns the first solved state of the
+	 * new layer, or {@code null} if it has none.
+	 */
+	private BoardState merge(SearchSpace space, List<Path> runs, int depth) throws IOException {
+		this.layerSize = 0;
+		List<StateReader> readers = new ArrayList<StateReader>();
+		BoardState goal = null;
+		Path partial = this.directory.resolve(String.format("layer-%05d.tmp", depth));
+		try {
+			PriorityQueue<StateReader> queue = new PriorityQueue<StateReader>();
+			for (Path run : runs) {
+				StateReader reader = new StateReader(run);
+				readers.add(reader);
+				if (reader.head() != null) {
+					queue.add(reader);
+				}
+			}
+			StateReader[] earlier = new StateReader[depth];
+			for (int i = 0; i < depth; i++) {
+				earlier[i] = new StateReader(this.layer(i));
+				readers.add(earlier[i]);
+			}
+			try (DataOutputStream out = this.create(partial)) {
+				BoardState last = null;
+				while (!queue.isEmpty()) {
+					StateReader reader = queue.poll();
+					BoardState state = reader.head();
+					if (reader.advance() != null) {
+						queue.add(reader);
+					}
+					if (state.equals(last)) {
+						continue;
+					}
+					last = state;
+					if (seen(earlier, state)) {
+						continue;
+					}
+					this.write(out, state);
+					this.layerSize++;
+					if (goal == null && space.isGoal(state.boxes())) {
+						goal = state;
+					}
+				}
+			}
+		}
+		finally {
+			for (StateReader reader : readers) {
+				reader.close();
+			}
+		}
+		Files.move(partial, this.layer(depth), StandardCopyOption.ATOMIC_MOVE);
+		return goal;
+	}
+
+	/**
+	 * Returns {@code true} if one of the specified layers holds the state. The
+	 * readers are moved forward up to the state, so the states must be looked up
+	 * in increasing order.
+	 */
+	private static boolean seen(StateReader[] layers, BoardState state) {
+		for (StateReader layer : layers) {
+			BoardState head = layer.head();
+			while (head != null && head.compareTo(state) < 0) {
+				head = layer.advance();
+			}
+			if (head != null && head.equals(state)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the first solved state of a layer, or {@code null} if it has none.
+	 */
+	private BoardState findGoal(SearchSpace space, int depth) throws IOException {
+		try (StateReader in = new StateReader(this.layer(depth))) {
+			for (BoardState state = in.head(); state != null; state = in.advance()) {
+				if (space.isGoal(state.boxes())) {
+					return state;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the moves that lead from the initial board to the specified state
+	 * of the layer {@code depth}, by finding a parent of each state in the layer
+	 * before it.
+	 */
+	private String moves(SearchSpace space, BoardState goal, int depth) throws IOException {
+		int[] pushes = new int[depth];
+		BoardState state = goal;
+		for (int d = depth - 1; d >= 0; d--) {
+			BoardState parent = null;
+			try (StateReader in = new StateReader(this.layer(d))) {
+				for (BoardState candidate = in.head(); parent == null && candidate != null; candidate = in.advance()) {
+					int[] boxes = candidate.boxes();
+					space.placeBoxes(boxes, true);
+					space.reach(candidate.playerCell());
+					for (int push : space.pushes(boxes)) {
+						if (state.equals(this.push(space, boxes, push))) {
+							parent = candidate;
+							pushes[d] = 4 * boxes[push / 4] + push % 4;
+							break;
+						}
+					}
+					space.placeBoxes(boxes, false);
+				}
+			}
+			if (parent == null) {
+				throw new IOException("layer " + d + " has no parent of a state in layer " + (d + 1));
+			}
+			state = parent;
+		}
+		return space.moves(pushes);
+	}
+
+	/**
+	 * Writes the header file describing the level, or checks that the header
+	 * already in the work directory describes the same level.
+	 */
+	private void checkHeader(BoardState root) throws IOException {
+		// the walls and storage locations, without the boxes
+		byte[] cells = this.board.cellFlags();
+		for (int cell = 0; cell < cells.length; cell++) {
+			cells[cell] &= ~Board.BOX;
+		}
+		int layout = Arrays.hashCode(cells);
+		Path header = this.directory.resolve("header");
+		if (Files.exists(header)) {
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(header))) {
+				boolean same = in.readInt() == MAGIC && in.readInt() == this.board.width()
+						&& in.readInt() == this.board.height() && in.readInt() == layout
+						&& in.readInt() == root.boxCount() && in.readInt() == root.playerCell();
+				for (int i = 0; same && i < root.boxCount(); i++) {
+					same = in.readInt() == root.boxCell(i);
+				}
+				if (!same) {
+					throw new IOException(this.directory + " holds the search of another level");
+				}
+			}
+			return;
+		}
+		Path partial = this.directory.resolve("header.tmp");
+		try (DataOutputStream out = this.create(partial)) {
+			out.writeInt(MAGIC);
+			out.writeInt(this.board.width());
+			out.writeInt(this.board.height());
+			out.writeInt(layout);
+			out.writeInt(root.boxCount());
+			out.writeInt(root.playerCell());
+			for (int i = 0; i < root.boxCount(); i++) {
+				out.writeInt(root.boxCell(i));
+			}
+		}
+		Files.move(partial, header, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Deletes the runs and the layer that an interrupted search left unfinished.
+	 */
+	private void removePartialFiles() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*.tmp")) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private void writeLayer(int depth, BoardState[] states, int n) throws IOException {
+		Path partial = this.writeRun(depth, 0, states, n);
+		Files.move(partial, this.layer(depth), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path layer(int depth) {
+		return this.directory.resolve(String.format("layer-%05d", depth));
+	}
+
+	private DataOutputStream create(Path file) throws IOException {
+		OutputStream out = Files.newOutputStream(file);
+		return new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+	}
+
+	/**
+	 * Writes a state as a record: the player square followed by the box squares,
+	 * each as an unsigned big-endian number, so that records sort like states.
+	 */
+	private void write(DataOutputStream out, BoardState state) throws IOException {
+		this.writeSquare(out, state.playerCell());
+		for (int box : state.boxes()) {
+			this.writeSquare(out, box);
+		}
+	}
+
+	private void writeSquare(DataOutputStream out, int square) throws IOException {
+		if (this.squareBytes == 2) {
+			out.writeShort(square);
+		}
+		else {
+			out.writeInt(square);
+		}
+	}
+
+	private void sampleMemory() {
+		Runtime rt = Runtime.getRuntime();
+		this.peakMemory = Math.max(this.peakMemory, rt.totalMemory() - rt.freeMemory());
+	}
+
+	/**
+	 * Reads the states of a layer or run file in order through memory-mapped
+	 * windows of the file. The reader is ordered by its current state, so that
+	 * readers can be merged with a priority queue.
+	 */
+	private final class StateReader implements Comparable<StateReader>, AutoCloseable {
+		private final FileChannel channel;
+		private final long size;
+		private final int boxes;
+		private MappedByteBuffer window;
+		private long windowStart;
+		private long position;
+		private BoardState head;
+
+		StateReader(Path file) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+			this.size = this.channel.size();
+			this.boxes = ExternalSolver.this.recordBytes / ExternalSolver.this.squareBytes - 1;
+			this.advance();
+		}
+
+		/**
+		 * Returns the current state, or {@code null} if the file has been read.
+		 */
+		BoardState head() {
+			return this.head;
+		}
+
+		/**
+		 * Moves on to the next state of the file and returns it, or returns
+		 * {@code null} if there are no more states.
+		 */
+		BoardState advance() {
+			int record = ExternalSolver.this.recordBytes;
+			if (this.position + record > this.size) {
+				this.head = null;
+				return null;
+			}
+			if (this.window == null || this.position + record > this.windowStart + this.window.limit()) {
+				// map a whole number of records so that no record straddles two windows
+				this.windowStart = this.position;
+				long length = Math.min(this.size - this.position, WINDOW / record * record);
+				try {
+					this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.windowStart, length);
+				}
+				catch (IOException x) {
+					throw new UncheckedIOException(x);
+				}
+			}
+			int offset = (int) (this.position - this.windowStart);
+			int player = this.square(offset);
+			int[] cells = new int[this.boxes];
+			for (int i = 0; i < cells.length; i++) {
+				offset += ExternalSolver.this.squareBytes;
+				cells[i] = this.square(offset);
+			}
+			this.position += record;
+			this.head = new BoardState(player, cells);
+			return this.head;
+		}
+
+		private int square(int offset) {
+			return ExternalSolver.this.squareBytes == 2 ? this.window.getChar(offset) : this.window.getInt(offset);
+		}
+
+		@Override
+		public int compareTo(StateReader other) {
+			return this.head.compareTo(other.head);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.window = null;
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Solves the level with the specified filename, keeping the layers of the
+	 * search in the specified work directory, and prints the solution along with
+	 * some statistics about the search. Running the same command again after the
+	 * search was stopped resumes it. The number of states buffered in memory can
+	 * be given with a leading {@code -buffer N} argument, and a directory of
+	 * deadlock patterns with {@code -patterns DIR}.
+	 *
+	 * @param args the options, the work directory, and the filename of the level
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		int buffer = 0;
+		Path patterns = null;
+		int first = 0;
+		while (first + 1 < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-buffer")) {
+				buffer = Integer.parseInt(args[first + 1]);
+			}
+			else if (args[first].equals("-patterns")) {
+				patterns = Paths.get(args[first + 1]);
+			}
+			else {
+				break;
+			}
+			first += 2;
+		}
+		if (args.length - first != 2) {
+			System.err.println("usage: ExternalSolver [-buffer N] [-patterns DIR] directory level");
+			System.exit(2);
+		}
+		ExternalSolver solver = new ExternalSolver(new Board(args[first + 1]), Paths.get(args[first]));
+		if (buffer > 0) {
+			solver.setBufferSize(buffer);
+		}
+		if (patterns != null) {
+			solver.loadDeadlockPatterns(patterns);
+		}
+		String solution = solver.solve();
+		System.out.println(args[first + 1] + ": " + (solution == null ? "no solution" : solution));
+		System.out.printf("  resumed at layer %d, %d layers, %d nodes expanded, %.0f nodes/s, %d KB peak memory%n",
+				solver.resumedAt(), solver.layers(), solver.nodesExpanded(), solver.nodesPerSecond(),
+				solver.peakMemory() / 1024);
+	}
+}
@@ -0,0 +1,139 @@
+package sokoban;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder events written by the game.
+ *
+ * <p>
+ * The events record how long it takes to read a level, make a move, check if a
+ * level is solved, set up a level in the window, and redraw the board, together
+ * with the size of the board and the number of pieces on it. They are only
+ * written while a recording is running, for example one started with
+ * {@code java -XX:StartFlightRecording=filename=game.jfr sokoban.SokobanGUI}
+ * or with {@code jcmd <pid> JFR.start}, and an event that is not recorded costs
+ * next to nothing. The fields of an event are only filled in when the event is
+ * going to be written. The events made on every move are only created while a
+ * recording has them enabled, so that moving creates no objects otherwise.
+ */
+final class GameEvents {
+	/**
+	 * The type of the {@code sokoban.Move} event.
+	 */
+	static final EventType MOVE = EventType.getEventType(Move.class);
+
+	/**
+	 * The type of the {@code sokoban.SolvedCheck} event.
+	 */
+	static final EventType SOLVED_CHECK = EventType.getEventType(SolvedCheck.class);
+
+	private GameEvents() {
+	}
+
+	/**
+	 * The fields shared by the events about a board.
+	 */
+	abstract static class BoardEvent extends Event {
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("Boxes")
+		int boxes;
+
+		@Label("Storage Locations")
+		int storages;
+
+		/**
+		 * Fills in the size of the specified board and the number of pieces on it.
+		 */
+		void describe(Board board) {
+			this.width = board.width();
+			this.height = board.height();
+			this.boxes = board.getBoxes().size();
+			this.storages = board.getStorage().size();
+		}
+	}
+
+	@Name("sokoban.LevelRead")
+	@Label("Level Read")
+	@Category({ "Sokoban", "Board" })
+	@Description("A level was read from a file and parsed")
+	static final class LevelRead extends BoardEvent {
+		@Label("File")
+		String file;
+
+		@Label("Walls")
+		int walls;
+	}
+
+	@Name("sokoban.Move")
+	@Label("Move")
+	@Category({ "Sokoban", "Board" })
+	@Description("The player was asked to move one square")
+	static final class Move extends BoardEvent {
+		@Label("Direction")
+		String direction;
+
+		@Label("Moved")
+		boolean moved;
+
+		@Label("Pushed")
+		boolean pushed;
+
+		@Label("Move Count")
+		int moveCount;
+	}
+
+	@Name("sokoban.SolvedCheck")
+	@Label("Solved Check")
+	@Category({ "Sokoban", "Board" })
+	@Description("A board was checked for being solved")
+	static final class SolvedCheck extends BoardEvent {
+		@Label("Boxes Remaining")
+		int remaining;
+
+		@Label("Solved")
+		boolean solved;
+	}
+
+	@Name("sokoban.LevelInit")
+	@Label("Level Init")
+	@Category({ "Sokoban", "Window" })
+	@Description("A level was set up in the game window")
+	static final class LevelInit extends BoardEvent {
+		@Label("Title")
+		String title;
+
+		@Label("Walls")
+		int walls;
+	}
+
+	@Name("sokoban.Draw")
+	@Label("Draw")
+	@Category({ "Sokoban", "Window" })
+	@Description("The squares changed by a move were queued for repainting")
+	static final class Draw extends BoardEvent {
+		@Label("Cells Repainted")
+		int cells;
+	}
+
+	@Name("sokoban.Paint")
+	@Label("Paint")
+	@Category({ "Sokoban", "Window" })
+	@Description("The board view painted the tiles inside its clip")
+	static final class Paint extends BoardEvent {
+		@Label("Cells Repainted")
+		int cells;
+
+		@Label("Cells Drawn")
+		int drawn;
+	}
+}
@@ -0,0 +1,226 @@
+package sokoban;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Running counters of the moves made in the game window and of how long the
+ * board view takes to show them, published over JMX by {@code register}.
+ *
+ * <p>
+ * Moves are only counted, and the rate of moves is worked out when it is read,
+ * from the count and the time of earlier readings: it is the average since the
+ * latest reading at least ten seconds old, or since the oldest reading if
+ * there is none that old. The move-to-repaint latencies are kept in histograms
+ * with eight buckets per power of two microseconds, so a percentile is
+ * accurate to within an eighth, and two histograms take turns so that the
+ * percentiles cover the last 30 to 60 seconds. Counting a move is a single
+ * uncontended addition and recording a paint a few array updates under a lock,
+ * and neither creates any objects, so the counters are always on. The
+ * counters may be updated by several threads at once.
+ */
+public class GameMetrics implements GameMetricsMBean {
+	/**
+	 * The name under which the counters are published.
+	 */
+	public static final String NAME = "sokoban:type=GameMetrics";
+
+	private static final GameMetrics INSTANCE = new GameMetrics();
+
+	private static final int SAMPLES = 16;
+	private static final long SAMPLE_PERIOD = 1_000_000_000L;
+	private static final long RATE_PERIOD = 10_000_000_000L;
+	private static final long HISTOGRAM_PERIOD = 30_000_000_000L;
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS = 3;
+	private static final int BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+	private final LongAdder moves = new LongAdder();
+	private final long[] sampleTime = new long[SAMPLES];
+	private final long[] sampleMoves = new long[SAMPLES];
+	private int samples;
+	private int nextSample;
+
+	private long repaints;
+	private long[] current = new long[BUCKETS];
+	private long[] previous = new long[BUCKETS];
+	private long currentStart = System.nanoTime();
+
+	/**
+	 * Returns the counters of the game.
+	 *
+	 * @return the counters of the game
+	 */
+	public static GameMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Publishes the counters of the game on the platform MBean server, where
+	 * they can be read with JConsole or any other JMX client. Publishing them
+	 * more than once has no effect.
+	 */
+	public static void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(NAME));
+		}
+		catch (InstanceAlreadyExistsException x) {
+			// already published
+		}
+		catch (JMException x) {
+			throw new IllegalStateException(x);
+		}
+	}
+
+	/**
+	 * Counts a move made in the game window.
+	 */
+	void moved() {
+		this.moves.increment();
+	}
+
+	/**
+	 * Records a paint of the board view that showed a move made the specified
+	 * number of nanoseconds earlier.
+	 *
+	 * @param now the time of the paint from {@code System.nanoTime}
+	 * @param latency the time from the move to the end of the paint in
+	 *                nanoseconds
+	 */
+	synchronized void repainted(long now, long latency) {
+		if (now - this.currentStart >= HISTOGRAM_PERIOD) {
+			long[] histogram = this.previous;
+			Arrays.fill(histogram, 0);
+			this.previous = this.current;
+			this.current = histogram;
+			this.currentStart = now;
+		}
+		this.repaints++;
+		this.current[bucket(Math.max(0, latency / 1000))]++;
+	}
+
+	@Override
+	public long getMoves() {
+		return this.moves.sum();
+	}
+
+	@Override
+	public synchronized double getMovesPerSecond() {
+		long now = System.nanoTime();
+		long total = this.moves.sum();
+
+		// measure from the latest reading old enough to cover the period, or
+		// from the oldest reading kept
+		int covering = -1;
+		int oldest = -1;
+		for (int i = 0; i < this.samples; i++) {
+			long age = now - this.sampleTime[i];
+			if (age >= RATE_PERIOD && (covering < 0 || age < now - this.sampleTime[covering])) {
+				covering = i;
+			}
+			if (oldest < 0 || age > now - this.sampleTime[oldest]) {
+				oldest = i;
+			}
+		}
+		int base = covering >= 0 ? covering : oldest;
+
+		int latest = (this.nextSample + SAMPLES - 1) % SAMPLES;
+		if (this.samples == 0 || now - this.sampleTime[latest] >= SAMPLE_PERIOD) {
+			this.sampleTime[this.nextSample] = now;
+			this.sampleMoves[this.nextSample] = total;
+			this.nextSample = (this.nextSample + 1) % SAMPLES;
+			this.samples = Math.min(this.samples + 1, SAMPLES);
+		}
+		if (base < 0 || now == this.sampleTime[base]) {
+			return 0;
+		}
+		return (total - this.sampleMoves[base]) * 1e9 / (now - this.sampleTime[base]);
+	}
+
+	@Override
+	public synchronized long getRepaints() {
+		return this.repaints;
+	}
+
+	@Override
+	public double getRepaintLatencyP50Millis() {
+		return this.percentile(0.5);
+	}
+
+	@Override
+	public double getRepaintLatencyP99Millis() {
+		return this.percentile(0.99);
+	}
+
+	@Override
+	public double getRepaintLatencyMaxMillis() {
+		return this.percentile(1);
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.moves.reset();
+		this.samples = 0;
+		this.nextSample = 0;
+		this.repaints = 0;
+		Arrays.fill(this.current, 0);
+		Arrays.fill(this.previous, 0);
+		this.currentStart = System.nanoTime();
+	}
+
+	/**
+	 * Returns the specified fraction of the recent latencies in milliseconds, or
+	 * 0 if no latency has been recorded lately. The value returned is the upper
+	 * end of the bucket holding the percentile.
+	 */
+	private synchronized double percentile(double fraction) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += this.current[i] + this.previous[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.current[i] + this.previous[i];
+			if (seen >= rank) {
+				return highest(i) / 1000.0;
+			}
+		}
+		return highest(BUCKETS - 1) / 1000.0;
+	}
+
+	/**
+	 * Returns the bucket holding the specified number of microseconds. Values
+	 * below {@code 2 * SUB_BUCKETS} have a bucket each, and every larger power of
+	 * two is split into {@code SUB_BUCKETS} buckets of equal width.
+	 */
+	static int bucket(long micros) {
+		if (micros < 2 * SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return 2 * SUB_BUCKETS + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest number of microseconds in the specified bucket.
+	 */
+	static long highest(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS + 1;
+		int sub = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+		long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
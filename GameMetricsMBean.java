@@ -0,0 +1,63 @@
+package sokoban;
+
+/**
+ * The management interface of the game's running counters, published over JMX
+ * as {@code sokoban:type=GameMetrics}.
+ */
+public interface GameMetricsMBean {
+	/**
+	 * Returns the number of moves, undos, and redos made in the game window
+	 * since the counters were reset.
+	 *
+	 * @return the number of moves made
+	 */
+	long getMoves();
+
+	/**
+	 * Returns the average number of moves made per second since the latest
+	 * earlier reading that is at least ten seconds old, or since the oldest
+	 * reading kept if none is that old. Readings less than a second apart share
+	 * one sample, and only the last sixteen samples are kept. The first reading
+	 * returns 0.
+	 *
+	 * @return the recent number of moves per second
+	 */
+	double getMovesPerSecond();
+
+	/**
+	 * Returns the number of paints of the board view that followed a move,
+	 * since the counters were reset.
+	 *
+	 * @return the number of paints after a move
+	 */
+	long getRepaints();
+
+	/**
+	 * Returns the median time in milliseconds from a move to the paint that
+	 * shows it, over the last minute or so.
+	 *
+	 * @return the median move-to-repaint latency in milliseconds
+	 */
+	double getRepaintLatencyP50Millis();
+
+	/**
+	 * Returns the 99th percentile of the time in milliseconds from a move to the
+	 * paint that shows it, over the last minute or so.
+	 *
+	 * @return the 99th percentile move-to-repaint latency in milliseconds
+	 */
+	double getRepaintLatencyP99Millis();
+
+	/**
+	 * Returns the longest time in milliseconds from a move to the paint that
+	 * shows it, over the last minute or so.
+	 *
+	 * @return the longest move-to-repaint latency in milliseconds
+	 */
+	double getRepaintLatencyMaxMillis();
+
+	/**
+	 * Sets every counter back to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,478 @@
+package sokoban;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A command-line tool that analyses every level in a directory or level pack
+ * without a user interface.
+ *
+ * <p>
+ * Each level can be parsed, checked for mistakes that make it unplayable,
+ * measured, and solved within a time budget. The levels are handled
+ * concurrently: every level that is being analysed has a thread of its own that
+ * reads it from its file, while the parsing and the rest of the work is done by
+ * a bounded pool with one thread per available processor, so that reading
+ * files never holds up the processors. The number of levels in progress is
+ * limited to a few per thread of the pool.
+ *
+ * <p>
+ * One record is written per level, as CSV with a header line or as one JSON
+ * object per line. Records are written in the order of the levels, each as soon
+ * as its level and all levels before it are done, so the output can be read
+ * while the analysis is still running.
+ */
+public class LevelAnalyzer {
+
+	/**
+	 * The job that reads and parses the levels, which is always done.
+	 */
+	public static final int PARSE = 1;
+
+	/**
+	 * The job that checks the levels for mistakes, such as a missing player or
+	 * fewer boxes than storage locations.
+	 */
+	public static final int VALIDATE = 2;
+
+	/**
+	 * The job that counts the walls, boxes, storage locations, and squares the
+	 * player can reach.
+	 */
+	public static final int STATISTICS = 4;
+
+	/**
+	 * The job that solves the levels within the time limit.
+	 */
+	public static final int SOLVE = 8;
+
+	private static final String[] LEVEL_EXTENSIONS = { ".txt", ".sok", ".xsb" };
+	private static final String[] COLUMNS = { "file", "level", "title", "parse_us", "problems", "width", "height",
+			"walls", "boxes", "storages", "reachable", "status", "pushes", "moves", "nodes", "solve_ms", "solution" };
+	private static final int LEVELS_PER_THREAD = 4;
+
+	private final PrintStream out;
+	private int threads;
+	private int jobs = PARSE | VALIDATE | STATISTICS;
+	private long timeLimit = 10000;
+	private boolean json;
+
+	private int levels;
+	private int nextLevel;
+	private final TreeMap<Integer, String> pending = new TreeMap<Integer, String>();
+
+	/**
+	 * Initialize an analyzer that writes its records to the specified stream and
+	 * uses one thread per available processor.
+	 *
+	 * @param out the stream to write the records to
+	 */
+	public LevelAnalyzer(PrintStream out) {
+		this.out = out;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets the number of threads that parse, check, and solve levels.
+	 *
+	 * @param threads the number of threads
+	 * @throws IllegalArgumentException if {@code threads} is less than 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of threads that parse, check, and solve levels.
+	 *
+	 * @return the number of threads
+	 */
+	public int threads() {
+		return this.threads;
+	}
+
+	/**
+	 * Sets the jobs done for every level. The levels are always parsed.
+	 *
+	 * @param jobs a combination of {@code PARSE}, {@code VALIDATE},
+	 *             {@code STATISTICS}, and {@code SOLVE}
+	 */
+	public void setJobs(int jobs) {
+		this.jobs = jobs | PARSE;
+	}
+
+	/**
+	 * Sets the time each level may be searched for a solution.
+	 *
+	 * @param millis the time limit in milliseconds, or 0 for no limit
+	 * @throws IllegalArgumentException if {@code millis} is negative
+	 */
+	public void setTimeLimit(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("the time limit must not be negative");
+		}
+		this.timeLimit = millis;
+	}
+
+	/**
+	 * Sets whether the records are written as JSON lines instead of CSV.
+	 *
+	 * @param json {@code true} to write one JSON object per line
+	 */
+	public void setJson(boolean json) {
+		this.json = json;
+	}
+
+	/**
+	 * Analyses every level in the specified files and writes a record for each
+	 * of them. A directory stands for the level files in it, in the order of
+	 * their names.
+	 *
+	 * @param paths level files, level packs, or directories holding them
+	 * @return the number of levels analysed
+	 * @throws IOException if a directory cannot be listed or a file cannot be
+	 *                     opened
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *                              waiting for the analysis
+	 */
+	public int analyze(List<Path> paths) throws IOException, InterruptedException {
+		List<Path> files = new ArrayList<Path>();
+		for (Path path : paths) {
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> list = Files.list(path)) {
+					files.addAll(list.filter(LevelAnalyzer::isLevelFile).sorted().collect(Collectors.toList()));
+				}
+			}
+			else {
+				files.add(path);
+			}
+		}
+
+		this.levels = 0;
+		this.nextLevel = 0;
+		this.pending.clear();
+		if (!this.json) {
+			this.out.println(String.join(",", COLUMNS));
+		}
+		ExecutorService readers = Executors.newCachedThreadPool();
+		ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+		Semaphore inProgress = new Semaphore(LEVELS_PER_THREAD * this.threads);
+		try {
+			for (Path file : files) {
+				LevelCollection collection = new LevelCollection(file);
+				for (int n = 0; n < collection.size(); n++) {
+					inProgress.acquire();
+					int index = this.levels++;
+					int level = n;
+					readers.execute(() -> {
+						try {
+							this.complete(index, this.analyze(collection, level, workers));
+						}
+						finally {
+							inProgress.release();
+						}
+					});
+				}
+			}
+			// wait for the last levels to be written
+			inProgress.acquire(LEVELS_PER_THREAD * this.threads);
+		}
+		finally {
+			readers.shutdownNow();
+			workers.shutdownNow();
+		}
+		this.out.flush();
+		return this.levels;
+	}
+
+	private static boolean isLevelFile(Path path) {
+		String name = path.getFileName().toString();
+		for (String extension : LEVEL_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a level on the calling thread and analyses it on one of the worker
+	 * threads, returning its record. A level that cannot be read or analysed
+	 * still gets a record, with the reason in its problems.
+	 */
+	private String analyze(LevelCollection collection, int level, ExecutorService workers) {
+		Record record = new Record(collection.path().getFileName().toString(), level + 1);
+		try {
+			record.put("title", collection.title(level));
+			List<String> rows = collection.rows(level);
+			Future<?> work = workers.submit(() -> this.analyze(rows, record));
+			work.get();
+		}
+		catch (IOException x) {
+			record.put("problems", "cannot read level: " + x.getMessage());
+		}
+		catch (RuntimeException x) {
+			record.put("problems", "cannot read level: " + x);
+		}
+		catch (ExecutionException x) {
+			record.put("problems", "analysis failed: " + x.getCause());
+		}
+		catch (InterruptedException x) {
+			Thread.currentThread().interrupt();
+			record.put("problems", "interrupted");
+		}
+		return this.json ? record.toJson() : record.toCsv();
+	}
+
+	/**
+	 * Runs the jobs on the rows of a level and fills in its record.
+	 */
+	private void analyze(List<String> rows, Record record) {
+		long start = System.nanoTime();
+		Board board = new Board(rows);
+		record.put("parse_us", (System.nanoTime() - start) / 1000);
+		if ((this.jobs & VALIDATE) != 0) {
+			record.put("problems", String.join("; ", problems(board)));
+		}
+		if ((this.jobs & STATISTICS) != 0) {
+			record.put("width", board.width());
+			record.put("height", board.height());
+			record.put("walls", board.getWalls().size());
+			record.put("boxes", board.getBoxes().size());
+			record.put("storages", board.getStorage().size());
+			record.put("reachable", board.reachableCount());
+		}
+		if ((this.jobs & SOLVE) != 0) {
+			if (board.getPlayer() == null) {
+				record.put("status", "skipped");
+				return;
+			}
+			Solver solver = new Solver(board);
+			solver.setTimeLimit(this.timeLimit);
+			start = System.nanoTime();
+			String solution = solver.solve();
+			record.put("solve_ms", (System.nanoTime() - start) / 1000000);
+			if (solution != null) {
+				ReplayResult result = board.replay(solution);
+				record.put("status", "solved");
+				record.put("pushes", result.pushes());
+				record.put("moves", result.moves());
+				record.put("solution", solution);
+			}
+			else {
+				record.put("status", solver.timedOut() ? "timeout" : "unsolvable");
+			}
+			record.put("nodes", solver.nodesExpanded());
+		}
+	}
+
+	/**
+	 * Returns the mistakes that make the level on the specified board unplayable.
+	 */
+	static List<String> problems(Board board) {
+		List<String> problems = new ArrayList<String>();
+		if (board.getPlayer() == null) {
+			problems.add("no player");
+		}
+		if (board.getStorage().isEmpty()) {
+			problems.add("no storage locations");
+		}
+		if (board.getBoxes().size() < board.getStorage().size()) {
+			problems.add(board.getBoxes().size() + " boxes for " + board.getStorage().size() + " storage locations");
+		}
+		if (board.getPlayer() != null && leaksOut(board)) {
+			problems.add("the player can walk off the board");
+		}
+		if (board.isDeadlocked()) {
+			problems.add("a box starts out deadlocked");
+		}
+		return problems;
+	}
+
+	/**
+	 * Returns {@code true} if the player could reach the edge of the board if
+	 * there were no boxes.
+	 */
+	private static boolean leaksOut(Board board) {
+		byte[] cells = board.cellFlags();
+		for (int cell = 0; cell < cells.length; cell++) {
+			cells[cell] &= ~Board.BOX;
+		}
+		Reachability region = new Reachability(board);
+		region.fill(cells, board.playerCell());
+		for (int i = 0; i < region.size(); i++) {
+			int cell = region.cell(i);
+			int x = cell % board.width();
+			int y = cell / board.width();
+			if (x == 0 || y == 0 || x == board.width() - 1 || y == board.height() - 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the record of the level with the specified index once every level
+	 * before it has been written.
+	 */
+	private synchronized void complete(int index, String record) {
+		this.pending.put(index, record);
+		while (!this.pending.isEmpty() && this.pending.firstKey() == this.nextLevel) {
+			this.out.println(this.pending.pollFirstEntry().getValue());
+			this.nextLevel++;
+		}
+		this.out.flush();
+	}
+
+	/**
+	 * The values found for one level, by column. Columns of jobs that were not
+	 * done are left empty.
+	 */
+	private static final class Record {
+		private final Object[] values = new Object[COLUMNS.length];
+
+		Record(String file, int level) {
+			this.put("file", file);
+			this.put("level", level);
+		}
+
+		void put(String column, Object value) {
+			for (int i = 0; i < COLUMNS.length; i++) {
+				if (COLUMNS[i].equals(column)) {
+					this.values[i] = value;
+					return;
+				}
+			}
+			throw new IllegalArgumentException(column);
+		}
+
+		String toCsv() {
+			StringBuilder b = new StringBuilder();
+			for (int i = 0; i < this.values.length; i++) {
+				if (i > 0) {
+					b.append(',');
+				}
+				if (this.values[i] instanceof String) {
+					String s = (String) this.values[i];
+					if (s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0) {
+						s = '"' + s.replace("\"", "\"\"") + '"';
+					}
+					b.append(s);
+				}
+				else if (this.values[i] != null) {
+					b.append(this.values[i]);
+				}
+			}
+			return b.toString();
+		}
+
+		String toJson() {
+			StringBuilder b = new StringBuilder("{");
+			for (int i = 0; i < this.values.length; i++) {
+				if (this.values[i] == null) {
+					continue;
+				}
+				if (b.length() > 1) {
+					b.append(',');
+				}
+				b.append('"').append(COLUMNS[i]).append("\":");
+				if (this.values[i] instanceof String) {
+					quote((String) this.values[i], b);
+				}
+				else {
+					b.append(this.values[i]);
+				}
+			}
+			return b.append('}').toString();
+		}
+
+		private static void quote(String s, StringBuilder b) {
+			b.append('"');
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '"' || c == '\\') {
+					b.append('\\').append(c);
+				}
+				else if (c < ' ') {
+					b.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					b.append(c);
+				}
+			}
+			b.append('"');
+		}
+	}
+
+	/**
+	 * Analyses the levels in the files and directories given as arguments and
+	 * writes a CSV record for each of them. The options are {@code -threads N}
+	 * for the number of worker threads, {@code -jobs LIST} for a comma-separated
+	 * list of {@code parse}, {@code validate}, {@code stats}, and {@code solve},
+	 * {@code -time SECONDS} for the time each level may be searched, and
+	 * {@code -json} to write JSON lines instead.
+	 *
+	 * @param args the options and the levels to analyse
+	 * @throws IOException if a file cannot be read
+	 * @throws InterruptedException if the analysis is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		LevelAnalyzer analyzer = new LevelAnalyzer(System.out);
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				analyzer.setThreads(Integer.parseInt(args[++i]));
+			}
+			else if (args[i].equals("-jobs") && i + 1 < args.length) {
+				int jobs = 0;
+				for (String job : args[++i].split(",")) {
+					if (job.equals("validate")) {
+						jobs |= VALIDATE;
+					}
+					else if (job.equals("stats")) {
+						jobs |= STATISTICS;
+					}
+					else if (job.equals("solve")) {
+						jobs |= SOLVE;
+					}
+					else if (!job.equals("parse")) {
+						System.err.println("unknown job: " + job);
+						System.exit(2);
+					}
+				}
+				analyzer.setJobs(jobs);
+			}
+			else if (args[i].equals("-time") && i + 1 < args.length) {
+				analyzer.setTimeLimit((long) (Double.parseDouble(args[++i]) * 1000));
+			}
+			else if (args[i].equals("-json")) {
+				analyzer.setJson(true);
+			}
+			else {
+				paths.add(Paths.get(args[i]));
+			}
+		}
+		if (paths.isEmpty()) {
+			System.err.println("usage: LevelAnalyzer [-threads N] [-jobs parse,validate,stats,solve] [-time SECONDS] "
+					+ "[-json] path...");
+			System.exit(2);
+		}
+		analyzer.analyze(paths);
+	}
+}
@@ -0,0 +1,220 @@
+package sokoban;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of parsed levels, shared by the game and the command-line tools.
+ *
+ * <p>
+ * Levels are kept as {@code LevelTemplate} objects, keyed by the path of their
+ * file and their index in it, together with the index of each level file as a
+ * {@code LevelCollection}. An entry is only used while the file has the same
+ * modification time as when it was read, so a level file that is edited is
+ * read again. When the cache holds more levels than its limit, the level used
+ * least recently is dropped; the same goes for the level files.
+ *
+ * <p>
+ * Looking up a level that is in the cache only checks the modification time of
+ * its file, and the board it returns is a cheap copy of the template. The
+ * cache may be used by several threads at once. A level that is not in the
+ * cache is read outside of the lock, so two threads asking for the same level
+ * at the same time may both read it.
+ */
+public class LevelCache {
+	private static final int SHARED_LEVELS = 256;
+	private static final LevelCache SHARED = new LevelCache(SHARED_LEVELS);
+
+	private final int maxLevels;
+	private final Map<Key, Entry<LevelTemplate>> levels;
+	private final Map<Path, Entry<LevelCollection>> collections;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Initialize an empty cache that holds at most the specified number of
+	 * levels.
+	 *
+	 * @param maxLevels the number of levels the cache may hold
+	 * @throws IllegalArgumentException if {@code maxLevels} is less than 1
+	 */
+	public LevelCache(int maxLevels) {
+		if (maxLevels < 1) {
+			throw new IllegalArgumentException("the cache must hold at least one level");
+		}
+		this.maxLevels = maxLevels;
+		this.levels = new LinkedHashMap<Key, Entry<LevelTemplate>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry<LevelTemplate>> eldest) {
+				return this.size() > LevelCache.this.maxLevels;
+			}
+		};
+		this.collections = new LinkedHashMap<Path, Entry<LevelCollection>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, Entry<LevelCollection>> eldest) {
+				return this.size() > LevelCache.this.maxLevels;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cache shared by the game and the command-line tools, which
+	 * holds up to 256 levels.
+	 *
+	 * @return the shared cache
+	 */
+	public static LevelCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns the index of the levels in the specified file, scanning the file
+	 * if it is not in the cache or has changed since it was scanned.
+	 *
+	 * @param file the path of a level file or collection
+	 * @return the levels in the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public LevelCollection collection(Path file) throws IOException {
+		Path path = file.toAbsolutePath().normalize();
+		FileTime modified = Files.getLastModifiedTime(path);
+		synchronized (this) {
+			Entry<LevelCollection> entry = this.collections.get(path);
+			if (entry != null && entry.modified.equals(modified)) {
+				return entry.value;
+			}
+		}
+		LevelCollection collection = new LevelCollection(path);
+		synchronized (this) {
+			this.collections.put(path, new Entry<LevelCollection>(modified, collection));
+		}
+		return collection;
+	}
+
+	/**
+	 * Returns the template of the level with the specified index in the
+	 * specified file, reading the level if it is not in the cache or its file
+	 * has changed since it was read.
+	 *
+	 * @param file the path of a level file or collection
+	 * @param n the index of a level in the file
+	 * @return the template of the level
+	 * @throws IOException if the file cannot be read
+	 * @throws IndexOutOfBoundsException if the file has no level with the index
+	 */
+	public LevelTemplate template(Path file, int n) throws IOException {
+		Key key = new Key(file.toAbsolutePath().normalize(), n);
+		FileTime modified = Files.getLastModifiedTime(key.path);
+		synchronized (this) {
+			Entry<LevelTemplate> entry = this.levels.get(key);
+			if (entry != null && entry.modified.equals(modified)) {
+				this.hits++;
+				return entry.value;
+			}
+			this.misses++;
+		}
+		LevelTemplate template = new LevelTemplate(this.collection(key.path).level(n));
+		synchronized (this) {
+			this.levels.put(key, new Entry<LevelTemplate>(modified, template));
+		}
+		return template;
+	}
+
+	/**
+	 * Returns a new board holding the level with the specified index in the
+	 * specified file.
+	 *
+	 * @param file the path of a level file or collection
+	 * @param n the index of a level in the file
+	 * @return a new board holding the level
+	 * @throws IOException if the file cannot be read
+	 * @throws IndexOutOfBoundsException if the file has no level with the index
+	 */
+	public Board board(Path file, int n) throws IOException {
+		return this.template(file, n).newBoard();
+	}
+
+	/**
+	 * Returns the number of levels in the cache.
+	 *
+	 * @return the number of levels in the cache
+	 */
+	public synchronized int size() {
+		return this.levels.size();
+	}
+
+	/**
+	 * Returns the number of times a level was found in the cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	/**
+	 * Returns the number of times a level had to be read.
+	 *
+	 * @return the number of cache misses
+	 */
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	/**
+	 * Removes every level and level file from the cache.
+	 */
+	public synchronized void clear() {
+		this.levels.clear();
+		this.collections.clear();
+	}
+
+	/**
+	 * The path of a level file and the index of a level in it.
+	 */
+	private static final class Key {
+		final Path path;
+		final int index;
+
+		Key(Path path, int index) {
+			this.path = path;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.index == other.index && this.path.equals(other.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.path.hashCode() + this.index;
+		}
+	}
+
+	/**
+	 * A cached value and the modification time of the file it was read from.
+	 */
+	private static final class Entry<T> {
+		final FileTime modified;
+		final T value;
+
+		Entry(FileTime modified, T value) {
+			this.modified = modified;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package sokoban;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A collection of Sokoban levels stored one after another in a single file,
+ * such as a {@code .sok} or {@code .xsb} level pack. A file holding a single
+ * level, like the {@code levelNN.txt} files, is a collection of one level.
+ *
+ * <p>
+ * A line belongs to a level if it only contains level symbols and has at least
+ * one wall on it. Levels are separated by blank lines or by lines of text such
+ * as titles and comments. Rows may be run-length encoded: a number in front of
+ * a symbol repeats the symbol, {@code -} and {@code _} may be used for empty
+ * squares, and {@code |} separates several rows written on one line.
+ *
+ * <p>
+ * The title of a level is taken from a {@code Title:} line following the level
+ * or, if there is none, from the last comment or line of text in front of the
+ * level.
+ *
+ * <p>
+ * The file is scanned once when the collection is opened, recording the byte
+ * offsets of each level, without keeping the levels in memory. A level is only
+ * read and parsed when it is asked for. Titles and comments are read as UTF-8,
+ * which also covers plain ASCII files.
+ */
+public class LevelCollection {
+	private static final String LEVEL_SYMBOLS = "#@+$*. -_|0123456789";
+
+	private final Path path;
+	private long[] starts;
+	private long[] ends;
+	private String[] titles;
+	private int size;
+
+	/**
+	 * Opens the level collection in the specified file and builds its index.
+	 *
+	 * @param path the path of the collection file
+	 * @throws IOException if the file cannot be read
+	 */
+	public LevelCollection(Path path) throws IOException {
+		this.path = path;
+		this.starts = new long[16];
+		this.ends = new long[16];
+		this.titles = new String[16];
+		this.size = 0;
+		try (InputStream in = Files.newInputStream(path)) {
+			this.scan(in);
+		}
+	}
+
+	/**
+	 * Reads the file a block at a time and records where each level starts and
+	 * ends.
+	 */
+	private void scan(InputStream in) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		byte[] line = new byte[256];
+		int length = 0;
+		long offset = 0;
+		long lineStart = 0;
+		boolean inLevel = false;
+		boolean titled = false;
+		String pending = null;
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			for (int i = 0; i < n; i++) {
+				if (buffer[i] != '\n') {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, 2 * length);
+					}
+					line[length++] = buffer[i];
+					continue;
+				}
+				long next = offset + i + 1;
+				if (isLevelRow(line, length)) {
+					if (!inLevel) {
+						this.add(lineStart, pending);
+						pending = null;
+						inLevel = true;
+						titled = false;
+					}
+					this.ends[this.size - 1] = next;
+				}
+				else {
+					inLevel = false;
+					String text = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+					if (lineStart == 0 && text.startsWith("\uFEFF")) {
+						// a byte order mark some editors put at the start of the file
+						text = text.substring(1).trim();
+					}
+					if (text.regionMatches(true, 0, "Title:", 0, 6)) {
+						String title = text.substring(6).trim();
+						if (this.size > 0 && !titled) {
+							this.titles[this.size - 1] = title;
+							titled = true;
+						}
+					}
+					else if (text.startsWith(";")) {
+						pending = text.substring(1).trim();
+					}
+					else if (!text.isEmpty() && text.indexOf(':') < 0) {
+						pending = text;
+					}
+				}
+				length = 0;
+				lineStart = next;
+			}
+			offset += n;
+		}
+		// the last line may not end with a line break
+		if (isLevelRow(line, length)) {
+			if (!inLevel) {
+				this.add(lineStart, pending);
+			}
+			this.ends[this.size - 1] = offset;
+		}
+	}
+
+	private void add(long start, String title) {
+		if (this.size == this.starts.length) {
+			this.starts = Arrays.copyOf(this.starts, 2 * this.size);
+			this.ends = Arrays.copyOf(this.ends, 2 * this.size);
+			this.titles = Arrays.copyOf(this.titles, 2 * this.size);
+		}
+		this.starts[this.size] = start;
+		this.titles[this.size] = title;
+		this.size++;
+	}
+
+	/**
+	 * Returns {@code true} if the first {@code length} bytes of the specified
+	 * line are a row of a level.
+	 */
+	private static boolean isLevelRow(byte[] line, int length) {
+		boolean wall = false;
+		for (int i = 0; i < length; i++) {
+			char c = (char) (line[i] & 0xFF);
+			if (c == '#') {
+				wall = true;
+			}
+			else if (c != '\r' && c != '\t' && LEVEL_SYMBOLS.indexOf(c) < 0) {
+				return false;
+			}
+		}
+		return wall;
+	}
+
+	/**
+	 * Returns the path of the collection file.
+	 *
+	 * @return the path of the collection file
+	 */
+	public Path path() {
+		return this.path;
+	}
+
+	/**
+	 * Returns the number of levels in this collection.
+	 *
+	 * @return the number of levels in this collection
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the title of the level with the specified index. Levels without a
+	 * title are called "Level" followed by their position in the collection,
+	 * counting from 1.
+	 *
+	 * @param n the index of a level, from 0 to {@code size() - 1}
+	 * @return the title of the level
+	 */
+	public String title(int n) {
+		this.checkIndex(n);
+		String title = this.titles[n];
+		if (title == null || title.isEmpty()) {
+			return "Level " + (n + 1);
+		}
+		return title;
+	}
+
+	/**
+	 * Reads the rows of the level with the specified index, expanding any
+	 * run-length encoded rows.
+	 *
+	 * @param n the index of a level, from 0 to {@code size() - 1}
+	 * @return the rows of the level, from top to bottom
+	 * @throws IOException if the collection file cannot be read
+	 */
+	public List<String> rows(int n) throws IOException {
+		this.checkIndex(n);
+		ByteBuffer bytes = ByteBuffer.allocate((int) (this.ends[n] - this.starts[n]));
+		try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+			long position = this.starts[n];
+			while (bytes.hasRemaining() && channel.read(bytes, position + bytes.position()) >= 0) {
+				// keep reading until the whole level is in the buffer
+			}
+		}
+		String text = new String(bytes.array(), 0, bytes.position(), StandardCharsets.ISO_8859_1);
+		List<String> rows = new ArrayList<String>();
+		for (String line : text.split("\n")) {
+			decode(line, rows);
+		}
+		return rows;
+	}
+
+	/**
+	 * Reads and parses the level with the specified index.
+	 *
+	 * @param n the index of a level, from 0 to {@code size() - 1}
+	 * @return a new board holding the level
+	 * @throws IOException if the collection file cannot be read
+	 */
+	public Board level(int n) throws IOException {
+		return new Board(this.rows(n));
+	}
+
+	/**
+	 * Expands a possibly run-length encoded line of a level into plain rows and
+	 * adds them to the specified list.
+	 */
+	static void decode(String line, List<String> rows) {
+		StringBuilder row = new StringBuilder();
+		int count = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9') {
+				count = 10 * count + (c - '0');
+				continue;
+			}
+			if (c == '\r') {
+				continue;
+			}
+			if (c == '|') {
+				rows.add(row.toString());
+				row.setLength(0);
+				count = 0;
+				continue;
+			}
+			if (c == '-' || c == '_' || c == '\t') {
+				c = ' ';
+			}
+			for (int k = Math.max(count, 1); k > 0; k--) {
+				row.append(c);
+			}
+			count = 0;
+		}
+		rows.add(row.toString());
+	}
+
+	private void checkIndex(int n) {
+		if (n < 0 || n >= this.size) {
+			throw new IndexOutOfBoundsException("level " + n + " of " + this.size);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package sokoban;
+
+/**
+ * A parsed Sokoban level from which any number of boards can be made.
+ *
+ * <p>
+ * A template holds the walls, storage locations, and initial position of the
+ * boxes and the player of a level, together with the tables worked out from
+ * them, and never changes. The boards made from a template share all of that
+ * and only have their own occupancy grid and pieces, so making a board takes
+ * no I/O and little memory. A template may be used by several threads at once.
+ */
+public final class LevelTemplate {
+	private final Board level;
+
+	/**
+	 * Initialize a template for the initial position of the level on the
+	 * specified board. The board is kept by the template and must not be used
+	 * afterwards.
+	 *
+	 * @param board a board that has not been moved
+	 */
+	LevelTemplate(Board board) {
+		board.internLocations();
+		this.level = board;
+	}
+
+	/**
+	 * Returns the width of the level.
+	 *
+	 * @return the width of the level
+	 */
+	public int width() {
+		return this.level.width();
+	}
+
+	/**
+	 * Returns the height of the level.
+	 *
+	 * @return the height of the level
+	 */
+	public int height() {
+		return this.level.height();
+	}
+
+	/**
+	 * Returns a new board holding the initial position of the level. Boards made
+	 * from the same template share their lists of walls and storage locations,
+	 * which must not be changed.
+	 *
+	 * @return a new board holding the level
+	 */
+	public Board newBoard() {
+		return new Board(this.level);
+	}
+}
@@ -7,12 +7,20 @@ package sokoban;
  * <p>
  * The positive x-direction points to the right and the positive y-direction
  * points downwards.
+ * 
+ * <p>
+ * The locations handed out by a {@code Board} are interned: asking one of them
+ * for a neighbouring location returns the board's existing object for that
+ * square instead of creating a new one.
  */
 public class Location {
 
 	private int x;
 	private int y;
 
+	// the table this location was interned in, or null
+	private LocationTable table;
+
 	/**
 	 * Initializes this location to (0, 0).
 	 */
@@ -32,6 +40,16 @@ public class Location {
 		this.y = y;
 	}
 
+	/**
+	 * Initializes this location to (x, y) as an interned location of the
+	 * specified table.
+	 */
+	Location(int x, int y, LocationTable table) {
+		this.x = x;
+		this.y = y;
+		this.table = table;
+	}
+
 	/**
 	 * Initializes this location by copying the coordinates of another location.
 	 * 
@@ -68,6 +86,9 @@ public class Location {
 	 * @return the location immediately to the left of this location
 	 */
 	public Location left() {
+		if (this.table != null) {
+			return this.table.at(x - 1, y);
+		}
 		Location leftLo = new Location(x - 1, y);
 		return leftLo;
 	}
@@ -78,6 +99,9 @@ public class Location {
 	 * @return the location immediately to the right of this location
 	 */
 	public Location right() {
+		if (this.table != null) {
+			return this.table.at(x + 1, y);
+		}
 		Location rightLo = new Location(x + 1, y);
 		return rightLo;
 	}
@@ -88,6 +112,9 @@ public class Location {
 	 * @return the location immediately above this location
 	 */
 	public Location up() {
+		if (this.table != null) {
+			return this.table.at(x, y - 1);
+		}
 		Location upLo = new Location(x, y - 1);
 		return upLo;
 	}
@@ -98,10 +125,56 @@ public class Location {
 	 * @return the location immediately below this location
 	 */
 	public Location down() {
+		if (this.table != null) {
+			return this.table.at(x, y + 1);
+		}
 		Location downLo = new Location(x, y + 1);
 		return downLo;
 	}
 
+	/**
+	 * Returns the coordinates of this location packed into a single {@code long}
+	 * value. The x-coordinate is stored in the high 32 bits and the y-coordinate
+	 * in the low 32 bits.
+	 * 
+	 * @return the packed coordinates of this location
+	 */
+	public long pack() {
+		return pack(this.x, this.y);
+	}
+
+	/**
+	 * Returns the coordinates {@code (x, y)} packed into a single {@code long}
+	 * value without creating a {@code Location} object.
+	 * 
+	 * @param x an x-coordinate
+	 * @param y a y-coordinate
+	 * @return the packed coordinates
+	 */
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the x-coordinate of packed coordinates.
+	 * 
+	 * @param packed coordinates returned by {@code pack}
+	 * @return the x-coordinate
+	 */
+	public static int unpackX(long packed) {
+		return (int) (packed >> 32);
+	}
+
+	/**
+	 * Returns the y-coordinate of packed coordinates.
+	 * 
+	 * @param packed coordinates returned by {@code pack}
+	 * @return the y-coordinate
+	 */
+	public static int unpackY(long packed) {
+		return (int) packed;
+	}
+
 	/**
 	 * Returns {@code true} if this location is immediately to the left, right,
 	 * above, or below another location, {@code false} otherwise. Diagonally
@@ -141,14 +214,14 @@ public class Location {
 	}
 
 	/**
-	 * Returns a hash code for this location.
+	 * Returns a hash code for this location. Locations whose coordinates both fit
+	 * in 16 bits always have different hash codes.
 	 * 
 	 * @return a hash code for this location
 	 */
 	@Override
 	public int hashCode() {
-		int hash = ( y +  ( ( x + 1 ) / 2));
-		return x + (hash * hash);
+		return (x << 16) ^ (y & 0xFFFF);
 	}
 
 	/**
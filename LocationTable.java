@@ -0,0 +1,69 @@
+package sokoban;
+
+/**
+ * A table of interned {@code Location} objects for the squares of a board.
+ * 
+ * <p>
+ * A board hands out the same {@code Location} object every time a particular
+ * square is asked for, and the interned locations use the table to return
+ * their neighbours, so that moving around the board does not allocate new
+ * locations. Locations are created lazily the first time a square is asked
+ * for.
+ */
+class LocationTable {
+	private final int width;
+	private final int height;
+	private final Location[] locations;
+
+	/**
+	 * Initialize an empty table for a board of the specified size.
+	 * 
+	 * @param width the width of the board
+	 * @param height the height of the board
+	 */
+	LocationTable(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.locations = new Location[width * height];
+	}
+
+	/**
+	 * Returns the interned location of the square with the specified grid index.
+	 * 
+	 * @param cell a grid index {@code y * width + x}
+	 * @return the interned location of the square
+	 */
+	Location at(int cell) {
+		Location loc = this.locations[cell];
+		if (loc == null) {
+			loc = new Location(cell % this.width, cell / this.width, this);
+			this.locations[cell] = loc;
+		}
+		return loc;
+	}
+
+	/**
+	 * Makes the location of every square, so that the table is no longer changed
+	 * by {@code at} and may be shared between threads.
+	 */
+	void internAll() {
+		for (int cell = 0; cell < this.locations.length; cell++) {
+			this.at(cell);
+		}
+	}
+
+	/**
+	 * Returns the interned location {@code (x, y)}. Coordinates outside of the
+	 * board are not interned and a new location is returned for them.
+	 * 
+	 * @param x the x-coordinate of the location
+	 * @param y the y-coordinate of the location
+	 * @return the location {@code (x, y)}
+	 */
+	Location at(int x, int y) {
+		if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+			return new Location(x, y);
+		}
+		return this.at(y * this.width + x);
+	}
+}
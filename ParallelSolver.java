@@ -0,0 +1,313 @@
+package sokoban;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * A class that finds a solution with the fewest pushes for a Sokoban level
+ * using several threads.
+ *
+ * <p>
+ * The solver searches the same push states as {@code Solver}, one layer of
+ * pushes at a time. The states of a layer are expanded in parallel by a
+ * work-stealing fork-join pool, and every state that has been seen is kept in a
+ * concurrent table shared by all threads.
+ *
+ * <p>
+ * The result does not depend on how the threads are scheduled. When a state is
+ * reached from several states of the previous layer, the parent that comes
+ * first in a fixed ordering of states is kept, and when a layer contains several
+ * solved states the first of them in the same ordering is returned.
+ */
+public class ParallelSolver {
+
+	private final Board board;
+	private int threads;
+	private DeadlockPatterns patterns;
+
+	private final LongAdder nodesExpanded;
+	private long elapsedNanos;
+	private long peakMemory;
+
+	/**
+	 * Initialize a solver for the level on the specified board that uses one
+	 * thread per available processor. The board is not changed by the solver.
+	 *
+	 * @param board the board to solve
+	 */
+	public ParallelSolver(Board board) {
+		this.board = board;
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.nodesExpanded = new LongAdder();
+	}
+
+	/**
+	 * Sets the number of threads used by {@code solve}.
+	 *
+	 * @param threads the number of threads
+	 * @throws IllegalArgumentException if {@code threads} is less than 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of threads used by {@code solve}.
+	 *
+	 * @return the number of threads
+	 */
+	public int threads() {
+		return this.threads;
+	}
+
+	/**
+	 * Makes the solver also prune states that contain a known deadlock pattern.
+	 * The patterns of the level are read from the specified directory, or
+	 * generated and saved there if this level has not been seen before.
+	 * Patterns are only used when there are as many boxes as storage locations.
+	 *
+	 * @param directory the directory the pattern files are kept in
+	 * @throws IOException if the pattern file cannot be read or written
+	 */
+	public void loadDeadlockPatterns(Path directory) throws IOException {
+		if (this.board.getBoxes().size() == this.board.getStorage().size()) {
+			this.patterns = DeadlockPatterns.load(this.board, directory);
+		}
+	}
+
+	/**
+	 * Searches for a solution of the level with the fewest pushes. Returns
+	 * {@code null} if the level cannot be solved.
+	 *
+	 * @return a solution in LURD notation, or {@code null} if there is no solution
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *                              waiting for the search
+	 */
+	public String solve() throws InterruptedException {
+		long start = System.nanoTime();
+		this.nodesExpanded.reset();
+		this.peakMemory = 0;
+		ForkJoinPool pool = new ForkJoinPool(this.threads);
+		try {
+			return this.search(pool);
+		}
+		finally {
+			pool.shutdown();
+			this.elapsedNanos = System.nanoTime() - start;
+			this.sampleMemory();
+		}
+	}
+
+	/**
+	 * Returns the number of states expanded by the last call to {@code solve}.
+	 *
+	 * @return the number of states expanded
+	 */
+	public long nodesExpanded() {
+		return this.nodesExpanded.sum();
+	}
+
+	/**
+	 * Returns the number of states expanded per second by the last call to
+	 * {@code solve}.
+	 *
+	 * @return the number of states expanded per second
+	 */
+	public double nodesPerSecond() {
+		if (this.elapsedNanos == 0) {
+			return 0;
+		}
+		return this.nodesExpanded.sum() * 1e9 / this.elapsedNanos;
+	}
+
+	/**
+	 * Returns the largest amount of heap memory in bytes that was seen in use
+	 * during the last call to {@code solve}.
+	 *
+	 * @return the peak heap memory use in bytes
+	 */
+	public long peakMemory() {
+		return this.peakMemory;
+	}
+
+	private String search(ForkJoinPool pool) throws InterruptedException {
+		SearchSpace space = new SearchSpace(this.board);
+		int[] boxes = space.initialBoxes();
+		if (boxes == null) {
+			return null;
+		}
+		space.placeBoxes(boxes, true);
+		BoardState root = new BoardState(space.reach(this.board.playerCell()), boxes);
+		space.placeBoxes(boxes, false);
+		if (space.isGoal(boxes)) {
+			return "";
+		}
+
+		ConcurrentHashMap<BoardState, Parent> visited = new ConcurrentHashMap<BoardState, Parent>();
+		visited.put(root, new Parent(0, null, -1));
+		space.setPatterns(this.patterns);
+		ThreadLocal<SearchSpace> spaces = ThreadLocal.withInitial(() -> {
+			SearchSpace local = new SearchSpace(this.board);
+			local.setPatterns(this.patterns);
+			return local;
+		});
+		List<BoardState> layer = Collections.singletonList(root);
+		for (int depth = 1; !layer.isEmpty(); depth++) {
+			final int pushes = depth;
+			final List<BoardState> current = layer;
+			List<BoardState> next;
+			try {
+				next = pool.submit(() -> current.parallelStream()
+						.flatMap(state -> this.expand(spaces.get(), state, pushes, visited).stream())
+						.collect(Collectors.toList())).get();
+			}
+			catch (ExecutionException x) {
+				throw new IllegalStateException(x.getCause());
+			}
+			this.sampleMemory();
+
+			// sort the new layer so that everything that follows is deterministic
+			Collections.sort(next);
+			for (BoardState state : next) {
+				if (space.isGoal(state.boxes())) {
+					return this.moves(space, state, visited);
+				}
+			}
+			layer = next;
+		}
+		return null;
+	}
+
+	/**
+	 * Expands a state of the layer {@code pushes - 1} and returns the children that
+	 * had not been seen before.
+	 */
+	private List<BoardState> expand(SearchSpace space, BoardState state, int pushes, ConcurrentHashMap<BoardState, Parent> visited) {
+		this.nodesExpanded.increment();
+		int[] boxes = state.boxes();
+		space.placeBoxes(boxes, true);
+		space.reach(state.playerCell());
+		List<BoardState> children = new ArrayList<BoardState>();
+		for (int push : space.pushes(boxes)) {
+			int i = push / 4;
+			int d = push % 4;
+			int box = boxes[i];
+			int to = this.board.neighbour(box, d);
+			space.moveBox(box, to);
+			if (space.isDeadlock(to)) {
+				space.moveBox(to, box);
+				continue;
+			}
+			BoardState child = new BoardState(space.reach(box), SearchSpace.moveBox(boxes, i, to));
+			space.moveBox(to, box);
+
+			Parent parent = new Parent(pushes, state, 4 * box + d);
+			Parent seen = visited.putIfAbsent(child, parent);
+			if (seen == null) {
+				children.add(child);
+			}
+			else if (seen.pushes == pushes) {
+				// reached again within the same layer; keep the first parent in state order
+				visited.merge(child, parent, Parent::first);
+			}
+		}
+		space.placeBoxes(boxes, false);
+		return children;
+	}
+
+	/**
+	 * Returns the moves that lead from the initial board to the specified state.
+	 */
+	private String moves(SearchSpace space, BoardState goal, ConcurrentHashMap<BoardState, Parent> visited) {
+		Parent parent = visited.get(goal);
+		int[] pushes = new int[parent.pushes];
+		while (parent.state != null) {
+			pushes[parent.pushes - 1] = parent.push;
+			parent = visited.get(parent.state);
+		}
+		return space.moves(pushes);
+	}
+
+	private void sampleMemory() {
+		Runtime rt = Runtime.getRuntime();
+		this.peakMemory = Math.max(this.peakMemory, rt.totalMemory() - rt.freeMemory());
+	}
+
+	/**
+	 * How a state was first reached: the number of pushes, the previous state, and
+	 * the push that was made from it.
+	 */
+	private static final class Parent {
+		final int pushes;
+		final BoardState state;
+		final int push;
+
+		Parent(int pushes, BoardState state, int push) {
+			this.pushes = pushes;
+			this.state = state;
+			this.push = push;
+		}
+
+		/**
+		 * Returns whichever of two parents in the same layer comes first.
+		 */
+		static Parent first(Parent a, Parent b) {
+			int c = a.state.compareTo(b.state);
+			if (c < 0 || c == 0 && a.push <= b.push) {
+				return a;
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * Solves the levels with the specified filenames and prints the solutions
+	 * along with some statistics about the search. The number of threads can be
+	 * given with a leading {@code -threads N} argument, and a directory of
+	 * deadlock patterns with {@code -patterns DIR}.
+	 *
+	 * @param args the filenames of the levels to solve
+	 * @throws IOException if a level file or pattern file cannot be read
+	 * @throws InterruptedException if the search is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path patterns = null;
+		int first = 0;
+		while (first + 1 < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-threads")) {
+				threads = Integer.parseInt(args[first + 1]);
+			}
+			else if (args[first].equals("-patterns")) {
+				patterns = Paths.get(args[first + 1]);
+			}
+			else {
+				break;
+			}
+			first += 2;
+		}
+		for (int i = first; i < args.length; i++) {
+			ParallelSolver solver = new ParallelSolver(new Board(args[i]));
+			solver.setThreads(threads);
+			if (patterns != null) {
+				solver.loadDeadlockPatterns(patterns);
+			}
+			String solution = solver.solve();
+			System.out.println(args[i] + ": " + (solution == null ? "no solution" : solution));
+			System.out.printf("  %d threads, %d nodes expanded, %.0f nodes/s, %d KB peak memory%n", threads,
+					solver.nodesExpanded(), solver.nodesPerSecond(), solver.peakMemory() / 1024);
+		}
+	}
+}
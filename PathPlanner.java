@@ -0,0 +1,167 @@
+package sokoban;
+
+import java.util.Arrays;
+
+/**
+ * Plans the moves for walking the player to a square and for pushing a single
+ * box to a square, starting from a copy of the position on a board.
+ *
+ * <p>
+ * The position is copied when the planner is created, so planning can be done
+ * on another thread while the board itself keeps changing; the plan is only
+ * valid for the position it was made from. A walk is a shortest walk that does
+ * not push any box. A push plan moves one box with the fewest pushes, using a
+ * breadth-first search over states made up of the square of the box and the
+ * side of the box the player stands on, while the other boxes stay where they
+ * are.
+ *
+ * <p>
+ * The planner fills its own {@code Reachability} over its copy of the grid
+ * rather than using the region the board keeps for the current position: the
+ * board's region belongs to the thread moving the player, and a push plan
+ * needs the region for many positions other than the current one.
+ *
+ * <p>
+ * Plans are returned as strings of moves in LURD notation.
+ */
+class PathPlanner {
+
+	private static final String MOVES = "lrud";
+	private static final String PUSHES = "LRUD";
+	private static final int UNSEEN = -2;
+
+	private final Board board;
+	private final byte[] cells;
+	private final int player;
+	private final Reachability region;
+
+	/**
+	 * Initialize a planner for the current position on the specified board.
+	 *
+	 * @param board the board to copy the position from
+	 */
+	PathPlanner(Board board) {
+		this.board = board;
+		this.cells = board.cellFlags();
+		this.player = board.playerCell();
+		this.region = new Reachability(board);
+	}
+
+	/**
+	 * Returns the moves of a shortest walk from the player to the specified
+	 * square without pushing a box, or {@code null} if the player cannot get
+	 * there.
+	 */
+	String walk(int target) {
+		if (this.player < 0 || target < 0 || target >= this.cells.length) {
+			return null;
+		}
+		this.region.fill(this.cells, this.player);
+		int[] walk = this.region.walk(target);
+		if (walk == null) {
+			return null;
+		}
+		StringBuilder moves = new StringBuilder(walk.length);
+		for (int d : walk) {
+			moves.append(MOVES.charAt(d));
+		}
+		return moves.toString();
+	}
+
+	/**
+	 * Returns the moves that push the box on square {@code box} to square
+	 * {@code target} with the fewest pushes, or {@code null} if there is no box
+	 * on {@code box} or it cannot be pushed to {@code target}.
+	 */
+	String push(int box, int target) {
+		int n = this.cells.length;
+		if (this.player < 0 || box < 0 || box >= n || target < 0 || target >= n
+				|| (this.cells[box] & Board.BOX) == 0) {
+			return null;
+		}
+		if (box == target) {
+			return "";
+		}
+		if ((this.cells[target] & (Board.WALL | Board.BOX)) != 0) {
+			return null;
+		}
+
+		// a state is 4 * square of the box + side of the box the player is on
+		int[] parent = new int[4 * n];
+		Arrays.fill(parent, UNSEEN);
+		int[] queue = new int[4 * n];
+		int tail = this.sides(box, this.player, -1, parent, queue, 0);
+		this.cells[box] &= ~Board.BOX;
+		try {
+			for (int head = 0; head < tail; head++) {
+				int state = queue[head];
+				int from = state >> 2;
+				int to = this.board.neighbour(from, (state & 3) ^ 1);
+				if (to < 0 || (this.cells[to] & (Board.WALL | Board.BOX)) != 0) {
+					continue;
+				}
+				if (to == target) {
+					return this.moves(state, parent);
+				}
+				// after the push the player stands where the box was
+				tail = this.sides(to, from, state, parent, queue, tail);
+			}
+			return null;
+		}
+		finally {
+			this.cells[box] |= Board.BOX;
+		}
+	}
+
+	/**
+	 * Adds the unseen states with the box on square {@code box} and the player
+	 * on a side of it that can be reached from {@code start} to the queue, and
+	 * returns the new end of the queue.
+	 */
+	private int sides(int box, int start, int from, int[] parent, int[] queue, int tail) {
+		byte saved = this.cells[box];
+		this.cells[box] |= Board.BOX;
+		this.region.fill(this.cells, start);
+		this.cells[box] = saved;
+		for (int d = 0; d < 4; d++) {
+			int side = this.board.neighbour(box, d);
+			int state = 4 * box + d;
+			if (side >= 0 && this.region.contains(side) && parent[state] == UNSEEN) {
+				parent[state] = from;
+				queue[tail++] = state;
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Returns the moves that make the pushes leading to the specified state
+	 * followed by the push out of it. The moving box must not be on the grid.
+	 */
+	private String moves(int last, int[] parent) {
+		int count = 0;
+		for (int state = last; state >= 0; state = parent[state]) {
+			count++;
+		}
+		int[] states = new int[count];
+		for (int state = last; state >= 0; state = parent[state]) {
+			states[--count] = state;
+		}
+
+		StringBuilder moves = new StringBuilder();
+		int player = this.player;
+		for (int state : states) {
+			int box = state >> 2;
+			int side = state & 3;
+			this.cells[box] |= Board.BOX;
+			this.region.fill(this.cells, player);
+			this.cells[box] &= ~Board.BOX;
+			for (int d : this.region.walk(this.board.neighbour(box, side))) {
+				moves.append(MOVES.charAt(d));
+			}
+			moves.append(PUSHES.charAt(side ^ 1));
+			player = box;
+		}
+		return moves.toString();
+	}
+}
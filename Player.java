@@ -45,6 +45,17 @@ public class Player {
 		return false;
 	}
 
+	/**
+	 * Puts the player on the specified location, which does not have to be adjacent
+	 * to the player's current location. Used by {@code Board} to restore a
+	 * snapshot.
+	 * 
+	 * @param loc the new location of this player
+	 */
+	void setLocation(Location loc) {
+		this.loc = loc;
+	}
+
 	/**
 	 * Move the player to the adjacent location to the left, changing
 	 * the player's location.
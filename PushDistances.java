@@ -0,0 +1,114 @@
+package sokoban;
+
+import java.util.Arrays;
+
+/**
+ * A table of the fewest pushes needed to move a box from any square of a level
+ * to each storage location.
+ *
+ * <p>
+ * The distances only depend on the walls: other boxes are ignored, and the
+ * player is assumed to be able to get behind the box whenever there is a floor
+ * square there. Like the dead squares of {@code Deadlocks}, the distances to a
+ * storage location are found by pulling a box away from it, which gives a
+ * lower bound on the number of pushes needed in any position of the level.
+ * Squares from which a box cannot reach a storage location at all have the
+ * distance {@code INFINITE}.
+ *
+ * <p>
+ * The table is computed once for a level and is read-only afterwards, so it
+ * may be shared between threads.
+ */
+class PushDistances {
+
+	/**
+	 * The distance of a square from which a box can never reach the storage
+	 * location. It is large enough that a sum of infinite distances is
+	 * recognisable, and small enough that such sums do not overflow.
+	 */
+	static final int INFINITE = 1 << 20;
+
+	private final int[][] distance;
+
+	/**
+	 * Computes the push distances of the level on the specified board. Only the
+	 * walls and storage locations of the board are used.
+	 *
+	 * @param board the board holding the level
+	 */
+	PushDistances(Board board) {
+		this(board, storages(board), true);
+	}
+
+	/**
+	 * Computes the fewest pushes needed to move a box from each of the specified
+	 * squares to any square of the level, for searches that run backwards from
+	 * the solved position. The squares take the place of the storage locations
+	 * and are numbered in the order given, so {@code distance(i, cell)} is the
+	 * distance from {@code sources[i]} to {@code cell}.
+	 *
+	 * @param board the board holding the level
+	 * @param sources the squares the boxes start from
+	 */
+	PushDistances(Board board, int[] sources) {
+		this(board, sources, false);
+	}
+
+	private PushDistances(Board board, int[] sources, boolean pull) {
+		int n = board.width() * board.height();
+		this.distance = new int[sources.length][];
+		int[] queue = new int[n];
+		for (int s = 0; s < sources.length; s++) {
+			int[] d = new int[n];
+			Arrays.fill(d, INFINITE);
+			d[sources[s]] = 0;
+			int tail = 0;
+			queue[tail++] = sources[s];
+			for (int head = 0; head < tail; head++) {
+				int cell = queue[head];
+				for (int dir = 0; dir < 4; dir++) {
+					// a pull moves the box one square and the player steps back one
+					// more, a push needs the player on the other side of the box
+					int to = board.neighbour(cell, dir);
+					int player = pull ? (to < 0 ? -1 : board.neighbour(to, dir)) : board.neighbour(cell, dir ^ 1);
+					if (to >= 0 && player >= 0 && d[to] == INFINITE && !board.hasWall(to) && !board.hasWall(player)) {
+						d[to] = d[cell] + 1;
+						queue[tail++] = to;
+					}
+				}
+			}
+			this.distance[s] = d;
+		}
+	}
+
+	/**
+	 * Returns the grid indexes of the storage locations in increasing order.
+	 */
+	private static int[] storages(Board board) {
+		int n = board.width() * board.height();
+		int[] storages = new int[n];
+		int count = 0;
+		for (int cell = 0; cell < n; cell++) {
+			if (board.hasStorage(cell)) {
+				storages[count++] = cell;
+			}
+		}
+		return Arrays.copyOf(storages, count);
+	}
+
+	/**
+	 * Returns the number of storage locations, which are numbered in increasing
+	 * order of their grid index.
+	 */
+	int storageCount() {
+		return this.distance.length;
+	}
+
+	/**
+	 * Returns the fewest pushes needed to move a box from the specified square to
+	 * the storage location with the specified number, or {@code INFINITE}.
+	 */
+	int distance(int storage, int cell) {
+		return this.distance[storage][cell];
+	}
+}
@@ -0,0 +1,145 @@
+package sokoban;
+
+import java.util.Arrays;
+
+/**
+ * The region of a board that the player can reach from a square without
+ * pushing a box, found by a breadth-first flood fill over a grid of
+ * {@code Board} cell flags.
+ *
+ * <p>
+ * The squares of the region are marked with a stamp that changes on every
+ * fill, so a fill never has to clear the marks of the previous one and testing
+ * whether a square is in the region takes constant time. The marks are only
+ * cleared when the stamp wraps around, once every 2^32 fills. The fill also records
+ * the direction in which each square was first entered, which gives a shortest
+ * walk from the start square to every square of the region.
+ *
+ * <p>
+ * The result of a fill stays valid until a box is moved on the grid; moving
+ * the player inside the region does not change the region. Instances are not
+ * thread-safe.
+ */
+class Reachability {
+	private final Board board;
+	private final int[] mark;
+	private final int[] queue;
+	private final byte[] came;
+	private int stamp;
+	private int size;
+	private int start;
+	private int topLeft;
+
+	/**
+	 * Initialize an empty region for the level on the specified board.
+	 *
+	 * @param board the board holding the level
+	 */
+	Reachability(Board board) {
+		this.board = board;
+		int n = board.width() * board.height();
+		this.mark = new int[n];
+		this.queue = new int[n];
+		this.came = new byte[n];
+		this.start = -1;
+		this.topLeft = -1;
+	}
+
+	/**
+	 * Marks every square that can be reached from {@code start} without crossing
+	 * a wall or a box in the specified grid and returns the top-left one of
+	 * them.
+	 *
+	 * @param cells a grid of {@code Board} cell flags
+	 * @param start the grid index of the square to start from
+	 * @return the smallest grid index in the region
+	 */
+	int fill(byte[] cells, int start) {
+		if (++this.stamp == 0) {
+			// a stamp of 0 would match every square never marked since
+			Arrays.fill(this.mark, 0);
+			this.stamp = 1;
+		}
+		int head = 0;
+		int tail = 0;
+		int min = start;
+		this.queue[tail++] = start;
+		this.mark[start] = this.stamp;
+		while (head < tail) {
+			int cell = this.queue[head++];
+			if (cell < min) {
+				min = cell;
+			}
+			for (int d = 0; d < 4; d++) {
+				int next = this.board.neighbour(cell, d);
+				if (next >= 0 && this.mark[next] != this.stamp && (cells[next] & (Board.WALL | Board.BOX)) == 0) {
+					this.mark[next] = this.stamp;
+					this.came[next] = (byte) d;
+					this.queue[tail++] = next;
+				}
+			}
+		}
+		this.size = tail;
+		this.start = start;
+		this.topLeft = min;
+		return min;
+	}
+
+	/**
+	 * Returns {@code true} if the square with the specified grid index is in the
+	 * region found by the last fill.
+	 */
+	boolean contains(int cell) {
+		return this.mark[cell] == this.stamp;
+	}
+
+	/**
+	 * Returns the number of squares in the region.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the {@code i}th square of the region in order of distance from the
+	 * start square.
+	 */
+	int cell(int i) {
+		return this.queue[i];
+	}
+
+	/**
+	 * Returns the square the last fill started from, or -1 if there has been no
+	 * fill.
+	 */
+	int start() {
+		return this.start;
+	}
+
+	/**
+	 * Returns the smallest grid index in the region.
+	 */
+	int topLeft() {
+		return this.topLeft;
+	}
+
+	/**
+	 * Returns the directions of a shortest walk from the start square to the
+	 * specified square of the region, or {@code null} if the square is not in
+	 * the region.
+	 */
+	int[] walk(int end) {
+		if (!this.contains(end)) {
+			return null;
+		}
+		int length = 0;
+		for (int cell = end; cell != this.start; cell = this.board.neighbour(cell, this.came[cell] ^ 1)) {
+			length++;
+		}
+		int[] directions = new int[length];
+		for (int cell = end; cell != this.start; cell = this.board.neighbour(cell, this.came[cell] ^ 1)) {
+			directions[--length] = this.came[cell];
+		}
+		return directions;
+	}
+}
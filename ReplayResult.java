@@ -0,0 +1,102 @@
+package sokoban;
+
+/**
+ * The outcome of replaying a string of moves on a board with
+ * {@code Board.replay}.
+ *
+ * <p>
+ * A replay stops at the first move that cannot be made. The result records how
+ * many moves and pushes were made up to that point, the index of the character
+ * in the string of the move that failed, and whether the board was solved when
+ * the replay stopped. Since whitespace in the string is skipped, the failed
+ * move is move {@code moves() + 1}, which may differ from its character
+ * index.
+ */
+public final class ReplayResult {
+	private final boolean solved;
+	private final int moves;
+	private final int pushes;
+	private final int failedAt;
+
+	/**
+	 * Initialize a replay result.
+	 *
+	 * @param solved whether the board was solved at the end of the replay
+	 * @param moves the number of moves made
+	 * @param pushes the number of moves that pushed a box
+	 * @param failedAt the character index in the move string of the move that
+	 *                 could not be made, or -1 if every move was made
+	 */
+	ReplayResult(boolean solved, int moves, int pushes, int failedAt) {
+		this.solved = solved;
+		this.moves = moves;
+		this.pushes = pushes;
+		this.failedAt = failedAt;
+	}
+
+	/**
+	 * Returns {@code true} if every storage location had a box on it when the
+	 * replay stopped.
+	 *
+	 * @return {@code true} if the board was solved, {@code false} otherwise
+	 */
+	public boolean solved() {
+		return this.solved;
+	}
+
+	/**
+	 * Returns {@code true} if every move could be made and the board was solved
+	 * at the end, that is, if the moves are a solution of the level.
+	 *
+	 * @return {@code true} if the moves solve the level, {@code false} otherwise
+	 */
+	public boolean isSolution() {
+		return this.solved && this.failedAt < 0;
+	}
+
+	/**
+	 * Returns the number of moves that were made, including pushes.
+	 *
+	 * @return the number of moves made
+	 */
+	public int moves() {
+		return this.moves;
+	}
+
+	/**
+	 * Returns the number of moves that pushed a box.
+	 *
+	 * @return the number of pushes made
+	 */
+	public int pushes() {
+		return this.pushes;
+	}
+
+	/**
+	 * Returns the character index in the move string of the first move that
+	 * could not be made because of a wall or a blocked box, or -1 if every move
+	 * was made. Whitespace before the move is counted, so this is not the number
+	 * of the move; that is {@code moves() + 1}.
+	 *
+	 * @return the character index of the failed move, or -1
+	 */
+	public int failedAt() {
+		return this.failedAt;
+	}
+
+	/**
+	 * Returns a string representation of this result, for example
+	 * {@code "solved, 230 moves, 97 pushes"} or
+	 * {@code "not solved, 2 moves, 0 pushes, blocked at move 3"}.
+	 *
+	 * @return a string representation of this result
+	 */
+	@Override
+	public String toString() {
+		String s = (this.solved ? "solved, " : "not solved, ") + this.moves + " moves, " + this.pushes + " pushes";
+		if (this.failedAt >= 0) {
+			s += ", blocked at move " + (this.moves + 1);
+		}
+		return s;
+	}
+}
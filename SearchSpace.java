@@ -0,0 +1,250 @@
+package sokoban;
+
+import java.util.Arrays;
+
+/**
+ * The space of push states of a level, shared by the solvers.
+ *
+ * <p>
+ * A push state is described by the sorted grid indexes of the boxes and the
+ * top-left square of the region the player can reach without pushing a box. A
+ * push is encoded as a single {@code int} equal to {@code 4 * cell + direction}
+ * where {@code cell} is the grid index of the box before the push.
+ *
+ * <p>
+ * The class keeps a scratch copy of the board's occupancy grid, on which the
+ * boxes of the state being looked at are placed, so an instance must only be
+ * used by one thread at a time. When there are as many boxes as storage
+ * locations, pushes onto dead squares are never generated, and
+ * {@code isDeadlock} recognises pushes that freeze a box away from a storage
+ * location. With more boxes than storage locations a spare box may end up
+ * anywhere, so neither check is made. The board itself is only read.
+ */
+class SearchSpace {
+
+	private static final String MOVES = "lrud";
+	private static final String PUSHES = "LRUD";
+
+	private final Board board;
+	private final int storageCount;
+	private final Deadlocks deadlocks;
+	private final boolean prune;
+
+	private final byte[] cells;
+	private final Reachability region;
+	private DeadlockPatterns patterns;
+
+	/**
+	 * Initialize the push state space of the level on the specified board.
+	 *
+	 * @param board the board holding the level
+	 */
+	SearchSpace(Board board) {
+		this.board = board;
+		int n = board.width() * board.height();
+		this.storageCount = board.getStorage().size();
+		this.deadlocks = board.deadlocks();
+		this.prune = board.getBoxes().size() == this.storageCount;
+		this.cells = board.cellFlags();
+		for (int cell = 0; cell < n; cell++) {
+			this.cells[cell] &= ~Board.BOX;
+		}
+		this.region = new Reachability(board);
+	}
+
+	/**
+	 * Returns the board this space was built from.
+	 */
+	Board board() {
+		return this.board;
+	}
+
+	/**
+	 * Returns the sorted box cells of the board's current position, or
+	 * {@code null} if the level cannot be solved because there are fewer boxes
+	 * than storage locations or there is no player.
+	 */
+	int[] initialBoxes() {
+		int[] boxes = this.board.boxCells();
+		if (boxes.length < this.storageCount || this.board.playerCell() < 0) {
+			return null;
+		}
+		Arrays.sort(boxes);
+		return boxes;
+	}
+
+	/**
+	 * Puts the specified boxes on, or takes them off, the scratch board used by
+	 * {@code reach}, {@code pushes}, and {@code walk}.
+	 */
+	void placeBoxes(int[] boxes, boolean present) {
+		for (int box : boxes) {
+			if (present) {
+				this.cells[box] |= Board.BOX;
+			}
+			else {
+				this.cells[box] &= ~Board.BOX;
+			}
+		}
+	}
+
+	/**
+	 * Moves a box on the scratch board.
+	 */
+	void moveBox(int from, int to) {
+		this.cells[from] &= ~Board.BOX;
+		this.cells[to] |= Board.BOX;
+	}
+
+	/**
+	 * Makes {@code isDeadlock} also look for the specified deadlock patterns, or
+	 * stop looking for patterns if {@code patterns} is {@code null}.
+	 */
+	void setPatterns(DeadlockPatterns patterns) {
+		this.patterns = patterns;
+	}
+
+	/**
+	 * Returns {@code true} if the box in the specified cell of the scratch board
+	 * is frozen away from a storage location or completes a deadlock pattern.
+	 * Always returns {@code false} if there are more boxes than storage
+	 * locations.
+	 */
+	boolean isDeadlock(int box) {
+		if (!this.prune) {
+			return false;
+		}
+		return this.deadlocks.isDeadlock(this.cells, box)
+				|| this.patterns != null && this.patterns.matches(this.cells, box);
+	}
+
+	/**
+	 * Marks every square the player can reach from {@code start} without pushing
+	 * a box on the scratch board, and returns the top-left one of them.
+	 */
+	int reach(int start) {
+		return this.region.fill(this.cells, start);
+	}
+
+	/**
+	 * Returns the pushes the player can make on the scratch board from the region
+	 * marked by the last call to {@code reach}, leaving out pushes onto dead
+	 * squares when there are as many boxes as storage locations.
+	 *
+	 * @param boxes the boxes on the scratch board
+	 * @return an array of pushes, each equal to {@code 4 * i + direction} where
+	 *         {@code i} is an index into {@code boxes}
+	 */
+	int[] pushes(int[] boxes) {
+		int[] pushes = new int[4 * boxes.length];
+		int count = 0;
+		for (int i = 0; i < boxes.length; i++) {
+			for (int d = 0; d < 4; d++) {
+				// the player stands on the opposite side of the box
+				int from = this.board.neighbour(boxes[i], d ^ 1);
+				int to = this.board.neighbour(boxes[i], d);
+				if (from >= 0 && to >= 0 && this.region.contains(from)
+						&& (this.cells[to] & (Board.WALL | Board.BOX)) == 0 && !(this.prune && this.deadlocks.isDead(to))) {
+					pushes[count++] = 4 * i + d;
+				}
+			}
+		}
+		return Arrays.copyOf(pushes, count);
+	}
+
+	/**
+	 * Returns the pulls the player can make on the scratch board from the region
+	 * marked by the last call to {@code reach}. A pull in direction {@code d}
+	 * has the player standing next to the box on the side {@code d} and stepping
+	 * one square further in direction {@code d}, dragging the box onto the
+	 * square the player left.
+	 *
+	 * @param boxes the boxes on the scratch board
+	 * @return an array of pulls, each equal to {@code 4 * i + direction} where
+	 *         {@code i} is an index into {@code boxes}
+	 */
+	int[] pulls(int[] boxes) {
+		int[] pulls = new int[4 * boxes.length];
+		int count = 0;
+		for (int i = 0; i < boxes.length; i++) {
+			for (int d = 0; d < 4; d++) {
+				int from = this.board.neighbour(boxes[i], d);
+				int to = from < 0 ? -1 : this.board.neighbour(from, d);
+				if (to >= 0 && this.region.contains(from) && (this.cells[to] & (Board.WALL | Board.BOX)) == 0) {
+					pulls[count++] = 4 * i + d;
+				}
+			}
+		}
+		return Arrays.copyOf(pulls, count);
+	}
+
+	/**
+	 * Returns {@code true} if the specified boxes cover every storage location.
+	 */
+	boolean isGoal(int[] boxes) {
+		int stored = 0;
+		for (int box : boxes) {
+			if (this.board.hasStorage(box)) {
+				stored++;
+			}
+		}
+		return stored == this.storageCount;
+	}
+
+	/**
+	 * Returns the shortest sequence of moves that takes the player from
+	 * {@code start} to {@code end} without pushing a box on the scratch board.
+	 */
+	String walk(int start, int end) {
+		this.region.fill(this.cells, start);
+		StringBuilder path = new StringBuilder();
+		for (int d : this.region.walk(end)) {
+			path.append(MOVES.charAt(d));
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Returns the moves in LURD notation that make the specified pushes, in order,
+	 * starting from the board's current position.
+	 *
+	 * @param pushes pushes encoded as {@code 4 * cell + direction}
+	 * @return the moves that make the pushes
+	 */
+	String moves(int[] pushes) {
+		int[] boxes = this.board.boxCells();
+		this.placeBoxes(boxes, true);
+		int player = this.board.playerCell();
+		StringBuilder b = new StringBuilder();
+		for (int push : pushes) {
+			int box = push / 4;
+			int d = push % 4;
+			b.append(this.walk(player, this.board.neighbour(box, d ^ 1)));
+			b.append(PUSHES.charAt(d));
+			this.moveBox(box, this.board.neighbour(box, d));
+			player = box;
+		}
+		for (int cell = 0; cell < this.cells.length; cell++) {
+			this.cells[cell] &= ~Board.BOX;
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Returns a sorted copy of {@code boxes} in which the box at index {@code i}
+	 * has been moved to grid cell {@code to}.
+	 */
+	static int[] moveBox(int[] boxes, int i, int to) {
+		int[] result = boxes.clone();
+		while (i > 0 && result[i - 1] > to) {
+			result[i] = result[i - 1];
+			i--;
+		}
+		while (i < result.length - 1 && result[i + 1] < to) {
+			result[i] = result[i + 1];
+			i++;
+		}
+		result[i] = to;
+		return result;
+	}
+}
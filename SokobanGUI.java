@@ -6,13 +6,15 @@ import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
@@ -24,6 +26,10 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 public class SokobanGUI extends JFrame implements ActionListener {
 	
@@ -34,21 +40,30 @@ public class SokobanGUI extends JFrame implements ActionListener {
 	private static final String RELOAD = "RELOAD";
 	private static final String LOAD = "LOAD";
 	private static final String EXIT = "EXIT";
+	private static final String UNDO = "UNDO";
+	private static final String REDO = "REDO";
+	private static final String UNDO_ALL = "UNDO_ALL";
+	private static final String GO_TO_MOVE = "GO_TO_MOVE";
+	private static final String DIRECTIONS = "lrud";
 	
 	private String filename;
-	private Map<Location, JLabel> levelMap;
+	private LevelCollection collection;
+	private int levelIndex;
+	private BoardView view;
 	private Board board;
 	private ImageIcon boxIcon;
 	private ImageIcon boxAndStorageIcon;
 	private ImageIcon playerIcon;
 	private ImageIcon storageIcon;
 	private ImageIcon wallIcon;
+	private boolean deadlockShown;
+	private String title;
+	private SwingWorker<String, Void> planning;
 	
 	public SokobanGUI() {
 		super("Sokoban");
 		this.board = new Board();
 		this.filename = "";
-		this.levelMap = new HashMap<>();
 		this.boxIcon = createImageIcon("box.png", "box");
 		this.boxAndStorageIcon = createImageIcon("box_on_storage.png", "box on storage");
 		this.playerIcon = createImageIcon("player.png", "player");
@@ -57,29 +72,70 @@ public class SokobanGUI extends JFrame implements ActionListener {
 		
 		this.setJMenuBar(this.makeMenu());
 		
+		this.view = new BoardView(this.wallIcon, this.storageIcon, this.boxIcon, this.boxAndStorageIcon,
+				this.playerIcon);
+		MouseAdapter mouse = new MouseAdapter() {
+			private int pressed = -1;
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				this.pressed = SwingUtilities.isLeftMouseButton(e) ? SokobanGUI.this.view.cellAt(e.getX(), e.getY()) : -1;
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				if (SwingUtilities.isLeftMouseButton(e)) {
+					SokobanGUI.this.plan(this.pressed, SokobanGUI.this.view.cellAt(e.getX(), e.getY()));
+				}
+				this.pressed = -1;
+			}
+		};
+		this.view.addMouseListener(mouse);
+		JPanel contentPanel = new JPanel();
+		contentPanel.add(new JScrollPane(this.view));
+		contentPanel.add(makeButtonPanel());
+		this.setContentPane(contentPanel);
+		this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		
 		this.initLevel();
 	}
 	
 	private final void initLevel() {
+		GameEvents.LevelInit event = new GameEvents.LevelInit();
+		event.begin();
 		String title = "Sokoban";
-		if (!this.filename.isEmpty()) {
+		if (this.collection != null && this.collection.size() > 1) {
+			title += " (" + this.filename + ": " + this.collection.title(this.levelIndex) + ")";
+		}
+		else if (!this.filename.isEmpty()) {
 			title += " (" + this.filename + ")";
 		}
-		this.setTitle(title);
-		JPanel contentPanel = new JPanel();
-		contentPanel.add(makeLevelPanel());
-		contentPanel.add(makeButtonPanel());
-		this.setContentPane(contentPanel);
+		this.title = title;
+		this.updateTitle();
+		this.deadlockShown = false;
+		this.view.setBoard(this.board);
 		this.pack();
-		this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-		this.drawWalls();
-		this.drawStorage();
-		this.drawBoxes();
-		this.drawPlayer();
+		event.end();
+		if (event.shouldCommit()) {
+			event.describe(this.board);
+			event.title = title;
+			event.walls = this.board.getWalls().size();
+			event.commit();
+		}
 	}
 	
 	
+	/**
+	 * Shows the level title, the number of boxes still to be stored, and the
+	 * number of moves made in the title bar.
+	 */
+	private final void updateTitle() {
+		int remaining = this.board.boxesRemaining();
+		int moves = this.board.moveCount();
+		this.setTitle(this.title + " - " + remaining + (remaining == 1 ? " box" : " boxes") + " left, " + moves
+				+ (moves == 1 ? " move" : " moves"));
+	}
+
 	private final ImageIcon createImageIcon(String path, String description) {
 	    java.net.URL imgURL = getClass().getResource(path);
 	    if (imgURL != null) {
@@ -99,12 +155,26 @@ public class SokobanGUI extends JFrame implements ActionListener {
 		this.addMenuItem(menu, "Load level", LOAD);
 		menu.addSeparator();
 		this.addMenuItem(menu, "Exit", EXIT);
+
+		JMenu moves = new JMenu("Moves");
+		bar.add(moves);
+		int ctrl = InputEvent.CTRL_DOWN_MASK;
+		this.addMenuItem(moves, "Undo", UNDO, KeyStroke.getKeyStroke(KeyEvent.VK_Z, ctrl));
+		this.addMenuItem(moves, "Redo", REDO, KeyStroke.getKeyStroke(KeyEvent.VK_Y, ctrl));
+		moves.addSeparator();
+		this.addMenuItem(moves, "Undo all moves", UNDO_ALL, KeyStroke.getKeyStroke(KeyEvent.VK_HOME, ctrl));
+		this.addMenuItem(moves, "Go to move...", GO_TO_MOVE, KeyStroke.getKeyStroke(KeyEvent.VK_G, ctrl));
 		return bar;
 	}
 
 	private final void addMenuItem(JMenu menu, String label, String action) {
+		this.addMenuItem(menu, label, action, null);
+	}
+
+	private final void addMenuItem(JMenu menu, String label, String action, KeyStroke shortcut) {
 		JMenuItem item = new JMenuItem(label);
 		item.setActionCommand(action);
+		item.setAccelerator(shortcut);
 		item.addActionListener(this);
 		menu.add(item);
 	}
@@ -131,24 +201,6 @@ public class SokobanGUI extends JFrame implements ActionListener {
 		return b;
 	}
 	
-	private JPanel makeLevelPanel() {
-		
-		int width = this.board.width();
-		int height = this.board.height();
-		
-		JPanel p = new JPanel();
-		p.setLayout(new GridLayout(height, width, 0, 0));
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				Location loc = new Location(x, y);
-				JLabel b = makeLabel("");
-				p.add(b);
-				this.levelMap.put(loc, b);
-			}
-		}
-		return p;
-	}
-	
 	private JPanel makeButtonPanel() {
 		JPanel p = new JPanel();
 		p.setLayout(new GridLayout(3, 3, 0, 0));
@@ -175,57 +227,79 @@ public class SokobanGUI extends JFrame implements ActionListener {
 		return p;
 	}
 	
-	private void drawWalls() {
-		List<Wall> walls = this.board.getWalls();
-		for (Wall w : walls) {
-			Location loc = w.location();
-			JLabel b = this.levelMap.get(loc);
-			b.setIcon(this.wallIcon);
+	/**
+	 * Asks which level of a collection to play. Returns the index of the chosen
+	 * level, or -1 if there are no levels or the player cancels.
+	 */
+	private int chooseLevel(LevelCollection levels) {
+		if (levels.size() == 0) {
+			JOptionPane.showMessageDialog(this, "The file does not contain any levels.");
+			return -1;
 		}
-	}
-	
-	private void drawStorage() {
-		List<Storage> storage = this.board.getStorage();
-		for (Storage s : storage) {
-			Location loc = s.location();
-			JLabel b = this.levelMap.get(loc);
-			if (this.board.hasBox(loc)) {
-				b.setIcon(this.boxAndStorageIcon);
-			}
-			else {
-				b.setIcon(this.storageIcon);
+		if (levels.size() == 1) {
+			return 0;
+		}
+		String[] titles = new String[levels.size()];
+		for (int i = 0; i < titles.length; i++) {
+			titles[i] = (i + 1) + ": " + levels.title(i);
+		}
+		Object choice = JOptionPane.showInputDialog(this, "Choose a level", "Load level",
+				JOptionPane.PLAIN_MESSAGE, null, titles, titles[0]);
+		for (int i = 0; i < titles.length; i++) {
+			if (titles[i] == choice) {
+				return i;
 			}
-			
 		}
+		return -1;
 	}
 	
-	private void drawBoxes() {
-		List<Box> boxes = this.board.getBoxes();
-		for (Box box : boxes) {
-			Location loc = box.location();
-			JLabel b = this.levelMap.get(loc);
-			if (this.board.hasStorage(loc)) {
-				b.setIcon(this.boxAndStorageIcon);
-			}
-			else {
-				b.setIcon(this.boxIcon);
+	/**
+	 * Asks for the number of a move to go back or forward to. Returns the number
+	 * of the move, or -1 if the player cancels or does not enter a valid number.
+	 */
+	private int chooseMove() {
+		int last = this.board.moveCount() + this.board.redoCount();
+		String answer = JOptionPane.showInputDialog(this, "Go to move (0 to " + last + "):",
+				this.board.moveCount());
+		if (answer == null) {
+			return -1;
+		}
+		try {
+			int n = Integer.parseInt(answer.trim());
+			if (n >= 0 && n <= last) {
+				return n;
 			}
-			
 		}
+		catch (NumberFormatException x) {
+			// fall through to the message below
+		}
+		JOptionPane.showMessageDialog(this, "Enter a move number from 0 to " + last + ".");
+		return -1;
 	}
-	
-	private void drawPlayer() {
-		Location loc = this.board.getPlayer().location();
-		JLabel b = this.levelMap.get(loc);
-		b.setIcon(this.playerIcon);
+
+	/**
+	 * Redraws only the squares that were changed by the last move.
+	 */
+	private void drawChanged() {
+		GameEvents.Draw event = new GameEvents.Draw();
+		event.begin();
+		for (int i = 0; i < this.board.changedCellCount(); i++) {
+			this.view.repaintCell(this.board.changedCell(i));
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.describe(this.board);
+			event.cells = this.board.changedCellCount();
+			event.commit();
+		}
 	}
 	
 	@Override
 	public void actionPerformed(ActionEvent e) {
+		long start = System.nanoTime();
 		String cmd = e.getActionCommand();
-		Location loc = this.board.getPlayer().location();
-		JLabel b = this.levelMap.get(loc);
 		boolean moved = false;
+		boolean jumped = false;
 		if (cmd.equals(LEFT)) {
 			moved = this.board.movePlayerLeft();
 		}
@@ -238,19 +312,51 @@ public class SokobanGUI extends JFrame implements ActionListener {
 		else if (cmd.equals(DOWN)) {
 			moved = this.board.movePlayerDown();
 		}
+		else if (cmd.equals(UNDO)) {
+			moved = this.board.undo();
+		}
+		else if (cmd.equals(REDO)) {
+			moved = this.board.redo();
+		}
+		else if (cmd.equals(UNDO_ALL)) {
+			this.board.undoTo(0);
+			jumped = true;
+		}
+		else if (cmd.equals(GO_TO_MOVE)) {
+			int n = this.chooseMove();
+			if (n >= 0) {
+				this.board.undoTo(n);
+				jumped = true;
+			}
+		}
 		else if (cmd.equals(RELOAD)) {
-			if (this.filename.isEmpty()) {
+			if (this.collection == null) {
 				this.board = new Board();
 				this.initLevel();
 			}
 			else {
 				try {
-					this.board = new Board(this.filename);
-					this.initLevel();
+					LevelCache cache = LevelCache.shared();
+					LevelCollection levels = cache.collection(this.collection.path());
+					if (levels.size() == 0) {
+						JOptionPane.showMessageDialog(this, "The level file no longer holds any levels.");
+					}
+					else {
+						// the file may have lost levels since it was loaded
+						int n = Math.min(this.levelIndex, levels.size() - 1);
+						this.board = cache.board(levels.path(), n);
+						this.collection = levels;
+						this.levelIndex = n;
+						this.initLevel();
+					}
 				}
 				catch (IOException x) {
 					JOptionPane.showMessageDialog(this, "Could not read the level file.");
 				}
+				catch (IndexOutOfBoundsException x) {
+					// the file changed again while the level was being read
+					JOptionPane.showMessageDialog(this, "The level is no longer in the level file.");
+				}
 			}
 		}
 		else if (cmd.equals(LOAD)) {
@@ -261,9 +367,15 @@ public class SokobanGUI extends JFrame implements ActionListener {
 			if (returnVal == JFileChooser.APPROVE_OPTION) {
 				File file = fc.getSelectedFile();
 				try {
-					this.board = new Board(file.getName());
-					this.filename = file.getName();
-					this.initLevel();
+					LevelCollection levels = LevelCache.shared().collection(file.toPath());
+					int n = this.chooseLevel(levels);
+					if (n >= 0) {
+						this.board = LevelCache.shared().board(levels.path(), n);
+						this.collection = levels;
+						this.levelIndex = n;
+						this.filename = file.getName();
+						this.initLevel();
+					}
 				}
 				catch (IOException x) {
 					JOptionPane.showMessageDialog(this, "Could not read the level file.");
@@ -276,19 +388,105 @@ public class SokobanGUI extends JFrame implements ActionListener {
 			this.dispose();
 		}
 		
+		if (jumped) {
+			this.view.repaint();
+		}
+		else if (moved) {
+			this.drawChanged();
+		}
 		if (moved) {
-			b.setIcon(null);
-			this.drawStorage();
-			this.drawBoxes();
-			this.drawPlayer();
-			if (this.board.isSolved()) {
-				JOptionPane.showMessageDialog(this, "You won!");
+			GameMetrics.get().moved();
+		}
+		if (moved || jumped) {
+			this.view.moveMade(start);
+			this.showStatus();
+		}
+	}
+
+	/**
+	 * Updates the title bar after the player has moved and tells the player if
+	 * the level has been solved or can no longer be solved.
+	 */
+	private void showStatus() {
+		this.updateTitle();
+		if (!this.board.isDeadlocked()) {
+			this.deadlockShown = false;
+		}
+		if (this.board.isSolved()) {
+			JOptionPane.showMessageDialog(this, "You won!");
+		}
+		else if (this.board.isDeadlocked() && !this.deadlockShown) {
+			this.deadlockShown = true;
+			JOptionPane.showMessageDialog(this, "The level can no longer be solved. Undo some moves or reload the level to try again.");
+		}
+	}
+
+	/**
+	 * Plans a walk to the square where the mouse was released or, if the mouse
+	 * was dragged from a box, a push of that box to the square. The plan is made
+	 * by a background thread from a copy of the position and is carried out when
+	 * it is ready, unless the player has moved in the meantime.
+	 */
+	private void plan(int from, int to) {
+		if (this.planning != null || from < 0 || to < 0) {
+			return;
+		}
+		final Board target = this.board;
+		final BoardState start = target.snapshot();
+		final PathPlanner planner = new PathPlanner(target);
+		final boolean push = from != to && target.hasBox(from);
+		if (!push && !target.isReachable(to)) {
+			return;
+		}
+		this.planning = new SwingWorker<String, Void>() {
+			@Override
+			protected String doInBackground() {
+				return push ? planner.push(from, to) : planner.walk(to);
+			}
+
+			@Override
+			protected void done() {
+				SokobanGUI.this.planning = null;
+				String moves;
+				try {
+					moves = this.get();
+				}
+				catch (InterruptedException | ExecutionException x) {
+					return;
+				}
+				if (moves != null && SokobanGUI.this.board == target && start.equals(target.snapshot())) {
+					SokobanGUI.this.makeMoves(moves);
+				}
 			}
+		};
+		this.planning.execute();
+	}
+
+	/**
+	 * Makes the specified moves, given in LURD notation, and repaints the squares
+	 * they changed in a single pass.
+	 */
+	private void makeMoves(String moves) {
+		long start = System.nanoTime();
+		boolean moved = false;
+		for (int i = 0; i < moves.length(); i++) {
+			if (!this.board.movePlayer(DIRECTIONS.indexOf(Character.toLowerCase(moves.charAt(i))))) {
+				break;
+			}
+			// the repaint manager merges these requests into one paint
+			this.drawChanged();
+			GameMetrics.get().moved();
+			moved = true;
+		}
+		if (moved) {
+			this.view.moveMade(start);
+			this.showStatus();
 		}
 	}
 	
 	
 	public static void main(String[] args) throws IOException {
+		GameMetrics.register();
 		SokobanGUI gui = new SokobanGUI();
 		gui.setVisible(true);
 		
@@ -0,0 +1,333 @@
+package sokoban;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A class that checks solutions of Sokoban levels by replaying them without a
+ * user interface.
+ *
+ * <p>
+ * The solutions for the levels in a file such as {@code level05.txt} or
+ * {@code pack.sok} are kept next to it in a file with the same name and the
+ * extension {@code .sol}. Every line of a solution file that is not blank and
+ * does not start with {@code ;} holds one solution in LURD notation. A solution
+ * is for the first level of the file unless the line starts with the number of
+ * a level followed by a colon, as in {@code 3: rrdLU}.
+ *
+ * <p>
+ * The solutions are checked in parallel by a fork-join pool. Each task loads
+ * its level once and replays a batch of solutions on it, restoring the initial
+ * position between them. The results are reported in the order of the
+ * solution files and lines.
+ */
+public class SolutionValidator {
+
+	private static final String[] LEVEL_EXTENSIONS = { ".txt", ".sok", ".xsb" };
+	private static final int BATCH_SIZE = 1024;
+
+	private final PrintStream out;
+	private int threads;
+	private boolean verbose;
+
+	private long checked;
+	private long elapsedNanos;
+
+	/**
+	 * Initialize a validator that reports to the specified stream and uses one
+	 * thread per available processor.
+	 *
+	 * @param out the stream to print the results to
+	 */
+	public SolutionValidator(PrintStream out) {
+		this.out = out;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets the number of threads used by {@code validate}.
+	 *
+	 * @param threads the number of threads
+	 * @throws IllegalArgumentException if {@code threads} is less than 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of threads used by {@code validate}.
+	 *
+	 * @return the number of threads
+	 */
+	public int threads() {
+		return this.threads;
+	}
+
+	/**
+	 * Sets whether every result is printed or only the solutions that fail.
+	 *
+	 * @param verbose {@code true} to print every result
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Checks every solution file in the specified directory and prints the
+	 * results.
+	 *
+	 * @param directory the directory holding the level and solution files
+	 * @return the number of solutions that do not solve their level
+	 * @throws IOException if a file cannot be read
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *                              waiting for the check
+	 */
+	public int validate(Path directory) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		List<Batch> batches = new ArrayList<Batch>();
+		List<Path> files;
+		try (Stream<Path> list = Files.list(directory)) {
+			files = list.filter(p -> p.getFileName().toString().endsWith(".sol")).sorted()
+					.collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			this.readSolutions(file, batches);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(this.threads);
+		List<List<String>> reports;
+		try {
+			reports = pool.submit(() -> batches.parallelStream().map(this::check).collect(Collectors.toList())).get();
+		}
+		catch (ExecutionException x) {
+			if (x.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) x.getCause()).getCause();
+			}
+			throw new IllegalStateException(x.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		// the batches of a file are next to each other; print their results in line order
+		int failed = 0;
+		this.checked = 0;
+		TreeMap<Integer, String> printed = new TreeMap<Integer, String>();
+		for (int i = 0; i < batches.size(); i++) {
+			Batch batch = batches.get(i);
+			List<String> report = reports.get(i);
+			for (int j = 0; j < batch.size(); j++) {
+				String result = report.get(j);
+				boolean ok = result.startsWith("OK");
+				if (!ok) {
+					failed++;
+				}
+				if (!ok || this.verbose) {
+					printed.put(batch.lines.get(j), batch.file.getFileName() + ":" + batch.lines.get(j) + ": " + result);
+				}
+			}
+			this.checked += batch.size();
+			if (i + 1 == batches.size() || batches.get(i + 1).file != batch.file) {
+				for (String line : printed.values()) {
+					this.out.println(line);
+				}
+				printed.clear();
+			}
+		}
+		this.elapsedNanos = System.nanoTime() - start;
+		return failed;
+	}
+
+	/**
+	 * Returns the number of solutions checked by the last call to
+	 * {@code validate}.
+	 *
+	 * @return the number of solutions checked
+	 */
+	public long solutionsChecked() {
+		return this.checked;
+	}
+
+	/**
+	 * Returns the number of solutions checked per second by the last call to
+	 * {@code validate}, including the time taken to read the files.
+	 *
+	 * @return the number of solutions checked per second
+	 */
+	public double solutionsPerSecond() {
+		if (this.elapsedNanos == 0) {
+			return 0;
+		}
+		return this.checked * 1e9 / this.elapsedNanos;
+	}
+
+	/**
+	 * Reads the solutions in a solution file and adds them to the batches, one
+	 * run of batches for each level they are for.
+	 */
+	private void readSolutions(Path file, List<Batch> batches) throws IOException {
+		String name = file.getFileName().toString();
+		String base = name.substring(0, name.length() - ".sol".length());
+		Path levels = null;
+		for (String extension : LEVEL_EXTENSIONS) {
+			Path candidate = file.resolveSibling(base + extension);
+			if (Files.isRegularFile(candidate)) {
+				levels = candidate;
+				break;
+			}
+		}
+		LevelCollection collection = levels == null ? null : LevelCache.shared().collection(levels);
+
+		// keep one open batch per level so that the solutions of a level share boards
+		Map<Integer, Batch> open = new HashMap<Integer, Batch>();
+		List<String> lines = Files.readAllLines(file);
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith(";")) {
+				continue;
+			}
+			int level = 0;
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				try {
+					level = Integer.parseInt(line.substring(0, colon).trim()) - 1;
+				}
+				catch (NumberFormatException x) {
+					level = -1;
+				}
+				line = line.substring(colon + 1);
+			}
+			Batch batch = open.get(level);
+			if (batch == null || batch.size() == BATCH_SIZE) {
+				batch = new Batch(file, collection, level);
+				open.put(level, batch);
+				batches.add(batch);
+			}
+			batch.add(i + 1, line);
+		}
+	}
+
+	/**
+	 * Replays the solutions of a batch and returns a result for each of them.
+	 */
+	private List<String> check(Batch batch) {
+		List<String> results = new ArrayList<String>(batch.size());
+		String error = null;
+		Board board = null;
+		if (batch.collection == null) {
+			error = "ERROR no level file";
+		}
+		else if (batch.level < 0 || batch.level >= batch.collection.size()) {
+			error = "ERROR no such level";
+		}
+		else {
+			try {
+				board = LevelCache.shared().board(batch.collection.path(), batch.level);
+			}
+			catch (IOException x) {
+				throw new UncheckedIOException(x);
+			}
+			if (board.playerCell() < 0) {
+				error = "ERROR no player";
+				board = null;
+			}
+		}
+		if (board == null) {
+			for (int i = 0; i < batch.size(); i++) {
+				results.add(error);
+			}
+			return results;
+		}
+
+		BoardState initial = board.snapshot();
+		for (String moves : batch.moves) {
+			try {
+				board.restore(initial);
+				ReplayResult result = board.replay(moves);
+				results.add((result.isSolution() ? "OK " : "FAILED ") + result);
+			}
+			catch (IllegalArgumentException x) {
+				results.add("ERROR " + x.getMessage());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Solutions for one level, read from consecutive lines of a solution file.
+	 */
+	private static final class Batch {
+		final Path file;
+		final LevelCollection collection;
+		final int level;
+		final List<Integer> lines = new ArrayList<Integer>();
+		final List<String> moves = new ArrayList<String>();
+
+		Batch(Path file, LevelCollection collection, int level) {
+			this.file = file;
+			this.collection = collection;
+			this.level = level;
+		}
+
+		void add(int line, String moves) {
+			this.lines.add(line);
+			this.moves.add(moves);
+		}
+
+		int size() {
+			return this.moves.size();
+		}
+	}
+
+	/**
+	 * Checks the solution files in the specified directory and prints the
+	 * solutions that fail, followed by a summary. The number of threads can be
+	 * given with a leading {@code -threads N} argument, and {@code -v} prints
+	 * every result. Exits with status 1 if any solution fails.
+	 *
+	 * @param args the options and the directory to check
+	 * @throws IOException if a file cannot be read
+	 * @throws InterruptedException if the check is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		SolutionValidator validator = new SolutionValidator(System.out);
+		String directory = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				validator.setThreads(Integer.parseInt(args[++i]));
+			}
+			else if (args[i].equals("-v")) {
+				validator.setVerbose(true);
+			}
+			else {
+				directory = args[i];
+			}
+		}
+		if (directory == null) {
+			System.err.println("usage: SolutionValidator [-threads N] [-v] directory");
+			System.exit(2);
+		}
+		int failed = validator.validate(Paths.get(directory));
+		System.out.printf("%d solutions checked, %d failed, %.0f solutions/s with %d threads%n",
+				validator.solutionsChecked(), failed, validator.solutionsPerSecond(), validator.threads());
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package sokoban;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A class that finds a solution for a Sokoban level.
+ *
+ * <p>
+ * The solver searches over push states rather than over single steps of the
+ * player. A state is made up of the locations of the boxes and the region of
+ * the board that the player can reach without pushing a box. The region is
+ * represented by its top-left square so that two positions that only differ in
+ * where the player stands inside the same region are treated as one state.
+ * States are explored in A* order using the number of pushes made so far plus
+ * a lower bound on the number of pushes that are still needed. The lower bound
+ * is the cost of the cheapest assignment of boxes to storage locations, where
+ * each box costs its push distance to its storage location; it is updated
+ * incrementally from the parent state, since a push only moves one box.
+ *
+ * <p>
+ * A solution is returned as a string of moves in LURD notation: the letters
+ * {@code l}, {@code r}, {@code u}, and {@code d} move the player and the upper
+ * case letters {@code L}, {@code R}, {@code U}, and {@code D} move the player
+ * while pushing a box.
+ */
+public class Solver {
+
+	private final Board board;
+	private final SearchSpace space;
+	private final Assignment assignment;
+
+	private long timeLimitNanos;
+	private long deadline;
+	private boolean timedOut;
+
+	private long tableMemory;
+	private TranspositionTable table;
+	private Map<BoardState, Integer> visited;
+
+	private long nodesExpanded;
+	private long elapsedNanos;
+	private long peakMemory;
+
+	/**
+	 * Initialize a solver for the level on the specified board. The board is not
+	 * changed by the solver.
+	 *
+	 * @param board the board to solve
+	 */
+	public Solver(Board board) {
+		this.board = board;
+		this.space = new SearchSpace(board);
+		this.assignment = new Assignment(new PushDistances(board), board.getBoxes().size());
+	}
+
+	/**
+	 * Makes the solver also prune states that contain a known deadlock pattern.
+	 * The patterns of the level are read from the specified directory, or
+	 * generated and saved there if this level has not been seen before.
+	 * Patterns are only used when there are as many boxes as storage locations,
+	 * since otherwise a box may stay where it is.
+	 *
+	 * @param directory the directory the pattern files are kept in
+	 * @throws IOException if the pattern file cannot be read or written
+	 */
+	public void loadDeadlockPatterns(Path directory) throws IOException {
+		if (this.board.getBoxes().size() == this.board.getStorage().size()) {
+			this.space.setPatterns(DeadlockPatterns.load(this.board, directory));
+		}
+	}
+
+	/**
+	 * Limits the time {@code solve} may take. A search that runs out of time
+	 * gives up and returns {@code null}, and {@code timedOut} tells it apart
+	 * from a level without a solution.
+	 *
+	 * @param millis the time limit in milliseconds, or 0 for no limit
+	 * @throws IllegalArgumentException if {@code millis} is negative
+	 */
+	public void setTimeLimit(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("the time limit must not be negative");
+		}
+		this.timeLimitNanos = millis * 1000000;
+	}
+
+	/**
+	 * Makes {@code solve} keep the states it has seen in a table outside of the
+	 * Java heap that takes at most the specified amount of memory, instead of in
+	 * a hash map on the heap. When the table is full, states found late in the
+	 * search are forgotten to make room, which may cost some repeated work but
+	 * keeps the memory use fixed. The maximum direct memory of the Java virtual
+	 * machine, set with {@code -XX:MaxDirectMemorySize}, must allow for the table.
+	 *
+	 * @param bytes the memory limit of the table in bytes, or 0 to keep the states
+	 *              on the heap
+	 * @throws IllegalArgumentException if {@code bytes} is negative
+	 */
+	public void setTableMemory(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("the table memory must not be negative");
+		}
+		this.tableMemory = bytes;
+	}
+
+	/**
+	 * Returns the table of seen states used by the last call to {@code solve}, or
+	 * {@code null} if the states were kept on the heap.
+	 */
+	TranspositionTable table() {
+		return this.table;
+	}
+
+	/**
+	 * Returns {@code true} if the last call to {@code solve} gave up because it
+	 * ran out of time.
+	 *
+	 * @return {@code true} if the last search ran out of time
+	 */
+	public boolean timedOut() {
+		return this.timedOut;
+	}
+
+	/**
+	 * Searches for a solution of the level. Returns {@code null} if the level
+	 * cannot be solved, or if a time limit has been set and the search runs out
+	 * of time.
+	 *
+	 * @return a solution in LURD notation, or {@code null} if there is no solution
+	 */
+	public String solve() {
+		long start = System.nanoTime();
+		this.deadline = start + this.timeLimitNanos;
+		this.timedOut = false;
+		this.nodesExpanded = 0;
+		this.peakMemory = 0;
+		try {
+			return this.search();
+		}
+		finally {
+			this.visited = null;
+			this.elapsedNanos = System.nanoTime() - start;
+			this.sampleMemory();
+		}
+	}
+
+	/**
+	 * Returns the number of states expanded by the last call to {@code solve}.
+	 *
+	 * @return the number of states expanded
+	 */
+	public long nodesExpanded() {
+		return this.nodesExpanded;
+	}
+
+	/**
+	 * Returns the number of states expanded per second by the last call to
+	 * {@code solve}.
+	 *
+	 * @return the number of states expanded per second
+	 */
+	public double nodesPerSecond() {
+		if (this.elapsedNanos == 0) {
+			return 0;
+		}
+		return this.nodesExpanded * 1e9 / this.elapsedNanos;
+	}
+
+	/**
+	 * Returns the largest amount of heap memory in bytes that was seen in use
+	 * during the last call to {@code solve}.
+	 *
+	 * @return the peak heap memory use in bytes
+	 */
+	public long peakMemory() {
+		return this.peakMemory;
+	}
+
+	private String search() {
+		int[] boxes = this.space.initialBoxes();
+		if (boxes == null) {
+			return null;
+		}
+		this.space.placeBoxes(boxes, true);
+		BoardState start = new BoardState(this.space.reach(this.board.playerCell()), boxes);
+		this.space.placeBoxes(boxes, false);
+		Assignment.Matching matching = this.assignment.solve(boxes);
+		if (matching.isInfinite()) {
+			return null;
+		}
+		Node root = new Node(start, 0, matching.cost, null, -1);
+		root.matching = matching;
+
+		PriorityQueue<Node> open = new PriorityQueue<Node>();
+		if (this.tableMemory > 0) {
+			this.table = new TranspositionTable(this.board, boxes.length, this.tableMemory);
+			this.visited = null;
+		}
+		else {
+			this.table = null;
+			this.visited = new HashMap<BoardState, Integer>();
+		}
+		open.add(root);
+		this.visit(root.state, 0);
+		while (!open.isEmpty()) {
+			Node node = open.poll();
+			int best = this.pushesTo(node.state);
+			if (best >= 0 && best < node.pushes) {
+				// a shorter way to this state was found after this node was queued
+				continue;
+			}
+			if (this.space.isGoal(node.state.boxes())) {
+				return this.moves(node);
+			}
+			this.nodesExpanded++;
+			if ((this.nodesExpanded & 0xFFF) == 0) {
+				this.sampleMemory();
+			}
+			if ((this.nodesExpanded & 0xFF) == 0 && this.timeLimitNanos > 0 && System.nanoTime() - this.deadline > 0) {
+				this.timedOut = true;
+				return null;
+			}
+			for (Node child : this.expand(node)) {
+				best = this.pushesTo(child.state);
+				if (best < 0 || best > child.pushes) {
+					this.visit(child.state, child.pushes);
+					open.add(child);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the fewest pushes found so far to the specified state, or -1 if the
+	 * state has not been seen or has been forgotten.
+	 */
+	private int pushesTo(BoardState state) {
+		if (this.table != null) {
+			return this.table.get(state);
+		}
+		Integer pushes = this.visited.get(state);
+		return pushes == null ? -1 : pushes;
+	}
+
+	/**
+	 * Records the fewest pushes found so far to the specified state.
+	 */
+	private void visit(BoardState state, int pushes) {
+		if (this.table != null) {
+			this.table.put(state, pushes);
+		}
+		else {
+			this.visited.put(state, pushes);
+		}
+	}
+
+	/**
+	 * Returns every state that can be reached from the specified state by a single
+	 * push.
+	 */
+	private List<Node> expand(Node node) {
+		int[] boxes = node.state.boxes();
+		Assignment.Matching matching = node.matching == null ? this.assignment.solve(boxes) : node.matching;
+		node.matching = null;
+		this.space.placeBoxes(boxes, true);
+		this.space.reach(node.state.playerCell());
+		int[] pushes = this.space.pushes(boxes);
+		List<Node> children = new ArrayList<Node>(pushes.length);
+		for (int push : pushes) {
+			int i = push / 4;
+			int d = push % 4;
+			int box = boxes[i];
+			int to = this.board.neighbour(box, d);
+			this.space.moveBox(box, to);
+			if (!this.space.isDeadlock(to)) {
+				int[] next = SearchSpace.moveBox(boxes, i, to);
+				Assignment.Matching bound = this.assignment.update(matching, next, i, Arrays.binarySearch(next, to));
+				if (!bound.isInfinite()) {
+					int player = this.space.reach(box);
+					BoardState state = new BoardState(player, next);
+					Node child = new Node(state, node.pushes + 1, node.pushes + 1 + bound.cost, node, 4 * box + d);
+					child.matching = bound;
+					children.add(child);
+				}
+			}
+			this.space.moveBox(to, box);
+		}
+		this.space.placeBoxes(boxes, false);
+		return children;
+	}
+
+	/**
+	 * Returns the moves that lead from the initial board to the specified state.
+	 */
+	private String moves(Node goal) {
+		int[] pushes = new int[goal.pushes];
+		for (Node node = goal; node.parent != null; node = node.parent) {
+			pushes[node.pushes - 1] = node.push;
+		}
+		return this.space.moves(pushes);
+	}
+
+	private void sampleMemory() {
+		Runtime rt = Runtime.getRuntime();
+		this.peakMemory = Math.max(this.peakMemory, rt.totalMemory() - rt.freeMemory());
+	}
+
+	/**
+	 * A search state along with the push that led to it. The player square of the
+	 * state is the top-left square of the player's region.
+	 */
+	private static final class Node implements Comparable<Node> {
+		final BoardState state;
+		final int pushes;
+		final int estimate;
+		final Node parent;
+		final int push;
+
+		// the box assignment of the state, kept until the node is expanded
+		Assignment.Matching matching;
+
+		Node(BoardState state, int pushes, int estimate, Node parent, int push) {
+			this.state = state;
+			this.pushes = pushes;
+			this.estimate = estimate;
+			this.parent = parent;
+			this.push = push;
+		}
+
+		@Override
+		public int compareTo(Node other) {
+			if (this.estimate != other.estimate) {
+				return Integer.compare(this.estimate, other.estimate);
+			}
+			// prefer the state that is closer to a solution
+			return Integer.compare(other.pushes, this.pushes);
+		}
+	}
+
+	/**
+	 * Solves the levels with the specified filenames and prints the solutions
+	 * along with some statistics about the search. A leading
+	 * {@code -patterns DIR} argument makes the solver use the deadlock patterns
+	 * kept in the directory {@code DIR}, and a leading {@code -table MB}
+	 * argument keeps the seen states in an off-heap table of {@code MB}
+	 * megabytes.
+	 *
+	 * @param args the filenames of the levels to solve
+	 * @throws IOException if a level file or pattern file cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		Path patterns = null;
+		long tableMemory = 0;
+		int first = 0;
+		while (first + 1 < args.length && args[first].startsWith("-")) {
+			if (args[first].equals("-patterns")) {
+				patterns = Paths.get(args[first + 1]);
+			}
+			else if (args[first].equals("-table")) {
+				tableMemory = Long.parseLong(args[first + 1]) << 20;
+			}
+			else {
+				break;
+			}
+			first += 2;
+		}
+		for (int i = first; i < args.length; i++) {
+			Solver solver = new Solver(new Board(args[i]));
+			if (patterns != null) {
+				solver.loadDeadlockPatterns(patterns);
+			}
+			solver.setTableMemory(tableMemory);
+			String solution = solver.solve();
+			System.out.println(args[i] + ": " + (solution == null ? "no solution" : solution));
+			System.out.printf("  %d nodes expanded, %.0f nodes/s, %d KB peak memory%n", solver.nodesExpanded(),
+					solver.nodesPerSecond(), solver.peakMemory() / 1024);
+			TranspositionTable table = solver.table();
+			if (table != null) {
+				System.out.printf("  table: %d of %d states (%.1f%%), %d replaced, %.2f average probes, %d longest%n",
+						table.size(), table.capacity(), 100 * table.occupancy(), table.replaced(),
+						table.averageProbeLength(), table.longestProbe());
+			}
+		}
+	}
+}
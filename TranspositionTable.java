@@ -0,0 +1,251 @@
+package sokoban;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A table of the push states seen by a search and the fewest pushes found to
+ * each of them, kept outside of the Java heap.
+ *
+ * <p>
+ * The table is an open-addressing hash table with linear probing in direct
+ * byte buffers, so it adds nothing to the work of the garbage collector no
+ * matter how many states it holds. Each slot holds the pushes of a state
+ * followed by the state itself, packed as its player square and its sorted box
+ * squares, two bytes per square on boards of up to 65536 squares and four
+ * bytes otherwise. States are placed by their Zobrist hash.
+ *
+ * <p>
+ * The memory is allocated up front, up to the limit given when the table is
+ * made, and the table never grows. A state is only looked for in a short run
+ * of slots starting at its home slot. When the run is full, the new state
+ * replaces the state in the run that was reached with the most pushes, since
+ * the states near the start of the search are the ones most worth keeping. A
+ * search using the table may therefore meet a forgotten state again and
+ * explore it twice, but it never mistakes one state for another.
+ *
+ * <p>
+ * The table is not thread-safe.
+ */
+class TranspositionTable {
+	private static final int PROBE_LIMIT = 32;
+	private static final int SEGMENT_BYTES = 1 << 30;
+
+	private final Zobrist zobrist;
+	private final int squareBytes;
+	private final int slotBytes;
+	private final long slots;
+	private final int slotsPerSegment;
+	private final ByteBuffer[] segments;
+
+	private long size;
+	private long lookups;
+	private long probes;
+	private int longestProbe;
+	private long replaced;
+
+	/**
+	 * Initialize an empty table for the states of a level with the specified
+	 * number of boxes that takes at most the specified amount of memory.
+	 *
+	 * @param board the board holding the level
+	 * @param boxes the number of boxes in every state
+	 * @param maxBytes the largest amount of memory in bytes the table may take
+	 * @throws IllegalArgumentException if {@code maxBytes} is too small for a
+	 *                                  single run of slots
+	 */
+	TranspositionTable(Board board, int boxes, long maxBytes) {
+		int cells = board.width() * board.height();
+		this.zobrist = new Zobrist(cells);
+		this.squareBytes = cells <= 1 << 16 ? 2 : 4;
+		this.slotBytes = 4 + (boxes + 1) * this.squareBytes;
+		this.slots = maxBytes / this.slotBytes;
+		if (this.slots < PROBE_LIMIT) {
+			throw new IllegalArgumentException("the table needs at least " + PROBE_LIMIT * this.slotBytes + " bytes");
+		}
+		this.slotsPerSegment = SEGMENT_BYTES / this.slotBytes;
+		int count = (int) ((this.slots + this.slotsPerSegment - 1) / this.slotsPerSegment);
+		this.segments = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long n = Math.min(this.slotsPerSegment, this.slots - (long) i * this.slotsPerSegment);
+			this.segments[i] = ByteBuffer.allocateDirect((int) n * this.slotBytes);
+		}
+	}
+
+	/**
+	 * Returns the fewest pushes recorded for the specified state, or -1 if the
+	 * state is not in the table.
+	 */
+	int get(BoardState state) {
+		long home = this.home(state);
+		for (int i = 0; i < PROBE_LIMIT; i++) {
+			long slot = (home + i) % this.slots;
+			int value = this.value(slot);
+			if (value == 0) {
+				this.count(i + 1);
+				return -1;
+			}
+			if (this.holds(slot, state)) {
+				this.count(i + 1);
+				return value - 1;
+			}
+		}
+		this.count(PROBE_LIMIT);
+		return -1;
+	}
+
+	/**
+	 * Records the fewest pushes found for the specified state, adding the state
+	 * if it is not in the table yet.
+	 */
+	void put(BoardState state, int pushes) {
+		long home = this.home(state);
+		long deepest = -1;
+		int most = -1;
+		for (int i = 0; i < PROBE_LIMIT; i++) {
+			long slot = (home + i) % this.slots;
+			int value = this.value(slot);
+			if (value == 0) {
+				this.count(i + 1);
+				this.write(slot, state, pushes);
+				this.size++;
+				return;
+			}
+			if (this.holds(slot, state)) {
+				this.count(i + 1);
+				this.segment(slot).putInt(this.offset(slot), pushes + 1);
+				return;
+			}
+			if (value > most) {
+				most = value;
+				deepest = slot;
+			}
+		}
+		this.count(PROBE_LIMIT);
+		this.write(deepest, state, pushes);
+		this.replaced++;
+	}
+
+	/**
+	 * Returns the number of states in the table.
+	 */
+	long size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of states the table has room for.
+	 */
+	long capacity() {
+		return this.slots;
+	}
+
+	/**
+	 * Returns the fraction of the slots that hold a state.
+	 */
+	double occupancy() {
+		return (double) this.size / this.slots;
+	}
+
+	/**
+	 * Returns the average number of slots looked at by {@code get} and
+	 * {@code put}.
+	 */
+	double averageProbeLength() {
+		return this.lookups == 0 ? 0 : (double) this.probes / this.lookups;
+	}
+
+	/**
+	 * Returns the largest number of slots looked at by a single {@code get} or
+	 * {@code put}.
+	 */
+	int longestProbe() {
+		return this.longestProbe;
+	}
+
+	/**
+	 * Returns the number of states that were pushed out of the table to make
+	 * room for new ones.
+	 */
+	long replaced() {
+		return this.replaced;
+	}
+
+	/**
+	 * Returns the amount of memory in bytes taken by the table.
+	 */
+	long bytes() {
+		return this.slots * this.slotBytes;
+	}
+
+	private void count(int length) {
+		this.lookups++;
+		this.probes += length;
+		if (length > this.longestProbe) {
+			this.longestProbe = length;
+		}
+	}
+
+	private long home(BoardState state) {
+		long h = this.zobrist.player(state.playerCell());
+		for (int box : state.boxes()) {
+			h ^= this.zobrist.box(box);
+		}
+		return (h >>> 1) % this.slots;
+	}
+
+	private ByteBuffer segment(long slot) {
+		return this.segments[(int) (slot / this.slotsPerSegment)];
+	}
+
+	private int offset(long slot) {
+		return (int) (slot % this.slotsPerSegment) * this.slotBytes;
+	}
+
+	private int value(long slot) {
+		return this.segment(slot).getInt(this.offset(slot));
+	}
+
+	private int square(ByteBuffer segment, int offset) {
+		return this.squareBytes == 2 ? segment.getChar(offset) : segment.getInt(offset);
+	}
+
+	/**
+	 * Returns {@code true} if the specified slot holds the specified state.
+	 */
+	private boolean holds(long slot, BoardState state) {
+		ByteBuffer segment = this.segment(slot);
+		int offset = this.offset(slot) + 4;
+		if (this.square(segment, offset) != state.playerCell()) {
+			return false;
+		}
+		int[] boxes = state.boxes();
+		for (int i = 0; i < boxes.length; i++) {
+			offset += this.squareBytes;
+			if (this.square(segment, offset) != boxes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void write(long slot, BoardState state, int pushes) {
+		ByteBuffer segment = this.segment(slot);
+		int offset = this.offset(slot);
+		segment.putInt(offset, pushes + 1);
+		offset += 4;
+		this.putSquare(segment, offset, state.playerCell());
+		for (int box : state.boxes()) {
+			offset += this.squareBytes;
+			this.putSquare(segment, offset, box);
+		}
+	}
+
+	private void putSquare(ByteBuffer segment, int offset, int square) {
+		if (this.squareBytes == 2) {
+			segment.putChar(offset, (char) square);
+		}
+		else {
+			segment.putInt(offset, square);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package sokoban;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing of the positions of a board.
+ *
+ * <p>
+ * The hash of a position is the exclusive or of the key of every box square
+ * and the key of the player square. Moving a piece only needs the keys of the
+ * square it leaves and the square it moves to, so a board can keep its hash up
+ * to date in constant time per move. The keys are generated from a fixed seed,
+ * so two boards of the same size always use the same keys.
+ */
+class Zobrist {
+	private static final long SEED = 0x50C0BA4L;
+
+	private final long[] boxKeys;
+	private final long[] playerKeys;
+
+	/**
+	 * Generates keys for a board with the specified number of squares.
+	 *
+	 * @param cells the number of squares of the board
+	 */
+	Zobrist(int cells) {
+		SplittableRandom random = new SplittableRandom(SEED);
+		this.boxKeys = new long[cells];
+		this.playerKeys = new long[cells];
+		for (int cell = 0; cell < cells; cell++) {
+			this.boxKeys[cell] = random.nextLong();
+			this.playerKeys[cell] = random.nextLong();
+		}
+	}
+
+	/**
+	 * Returns the key of a box on the square with the specified grid index.
+	 */
+	long box(int cell) {
+		return this.boxKeys[cell];
+	}
+
+	/**
+	 * Returns the key of the player on the square with the specified grid index.
+	 */
+	long player(int cell) {
+		return this.playerKeys[cell];
+	}
+}
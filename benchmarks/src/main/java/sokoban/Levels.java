@@ -0,0 +1,65 @@
+package sokoban;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The levels used by the benchmarks: the shipped {@code levelNN.txt} files and
+ * synthetic levels of any size.
+ */
+final class Levels {
+
+	private static final String SYNTHETIC = "synthetic-";
+
+	private Levels() {
+	}
+
+	/**
+	 * Returns the rows of the level with the specified name. A name such as
+	 * {@code level03} is read from {@code src/sokoban/level03.txt} and a name such
+	 * as {@code synthetic-256} is a synthetic level of 256 by 256 squares.
+	 */
+	static List<String> rows(String name) throws IOException {
+		if (name.startsWith(SYNTHETIC)) {
+			return synthetic(Integer.parseInt(name.substring(SYNTHETIC.length())));
+		}
+		return Files.readAllLines(Path.of("src", "sokoban", name + ".txt"));
+	}
+
+	/**
+	 * Returns a square room of the specified size enclosed by walls, with a
+	 * pillar every four squares and a box above a storage location in between
+	 * the pillars. The player starts in the top left corner.
+	 */
+	static List<String> synthetic(int size) {
+		if (size < 8) {
+			throw new IllegalArgumentException("a synthetic level needs at least 8 rows");
+		}
+		List<String> rows = new ArrayList<String>(size);
+		StringBuilder row = new StringBuilder(size);
+		for (int y = 0; y < size; y++) {
+			row.setLength(0);
+			for (int x = 0; x < size; x++) {
+				char c = ' ';
+				if (x == 0 || y == 0 || x == size - 1 || y == size - 1 || x % 4 == 0 && y % 4 == 0) {
+					c = '#';
+				}
+				else if (x == 1 && y == 1) {
+					c = '@';
+				}
+				else if (x % 4 == 2 && y % 4 == 2 && y + 1 < size - 1) {
+					c = '$';
+				}
+				else if (x % 4 == 2 && y % 4 == 3) {
+					c = '.';
+				}
+				row.append(c);
+			}
+			rows.add(row.toString());
+		}
+		return rows;
+	}
+}
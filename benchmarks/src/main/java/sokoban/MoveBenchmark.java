@@ -0,0 +1,84 @@
+package sokoban;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of moving the player around a board.
+ *
+ * <p>
+ * The player follows a fixed random walk, pushing whatever boxes are in the
+ * way. The walk starts over from the initial position every
+ * {@code WALK_LENGTH} moves, so that the boxes do not all end up stuck against
+ * the walls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+
+	private static final int WALK_LENGTH = 1024;
+
+	@Param({ "level01", "level04", "level08", "synthetic-64", "synthetic-512" })
+	public String level;
+
+	private Board board;
+	private BoardState initial;
+	private int[] walk;
+	private int step;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.board = new Board(Levels.rows(this.level));
+		this.initial = this.board.snapshot();
+		SplittableRandom random = new SplittableRandom(42);
+		this.walk = new int[WALK_LENGTH];
+		for (int i = 0; i < WALK_LENGTH; i++) {
+			this.walk[i] = random.nextInt(4);
+		}
+		this.step = 0;
+	}
+
+	private int nextDirection() {
+		if (this.step == WALK_LENGTH) {
+			this.board.restore(this.initial);
+			this.step = 0;
+		}
+		return this.walk[this.step++];
+	}
+
+	@Benchmark
+	public boolean movePlayer() {
+		return this.board.movePlayer(this.nextDirection());
+	}
+
+	@Benchmark
+	public boolean movePlayerByName() {
+		switch (this.nextDirection()) {
+		case Board.LEFT:
+			return this.board.movePlayerLeft();
+		case Board.RIGHT:
+			return this.board.movePlayerRight();
+		case Board.UP:
+			return this.board.movePlayerUp();
+		default:
+			return this.board.movePlayerDown();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package sokoban;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of loading a level: reading and parsing a shipped level file with
+ * {@code Board(String)}, parsing rows that are already in memory with
+ * {@code Board(List)}, and opening a level compiled into a {@code LevelPack}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class LevelFile {
+		@Param({ "level01", "level02", "level03", "level04", "level05", "level06", "level07", "level08" })
+		public String level;
+	}
+
+	@State(Scope.Benchmark)
+	public static class LevelRows {
+		@Param({ "level01", "level08", "synthetic-64", "synthetic-256", "synthetic-1024" })
+		public String level;
+
+		List<String> rows;
+
+		@Setup
+		public void setUp() throws IOException {
+			this.rows = Levels.rows(this.level);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Pack {
+		@Param({ "0", "4", "7" })
+		public int index;
+
+		Path file;
+		LevelPack pack;
+
+		@Setup
+		public void setUp() throws IOException {
+			List<Path> sources = new ArrayList<Path>();
+			for (int i = 1; i <= 8; i++) {
+				sources.add(Path.of("src", "sokoban", "level0" + i + ".txt"));
+			}
+			this.file = Files.createTempFile("levels", ".pack");
+			LevelPack.compile(sources, this.file);
+			this.pack = new LevelPack(this.file);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			Files.delete(this.file);
+		}
+	}
+
+	@Benchmark
+	public Board readFile(LevelFile file) throws IOException {
+		return new Board(file.level + ".txt");
+	}
+
+	@Benchmark
+	public Board parseRows(LevelRows level) {
+		return new Board(level.rows);
+	}
+
+	@Benchmark
+	public Board openPacked(Pack pack) {
+		return pack.pack.level(pack.index);
+	}
+}
@@ -0,0 +1,85 @@
+package sokoban;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the read-only queries on a board. The square lookups ask about every
+ * square of the board once per invocation, using new {@code Location} objects
+ * the way callers outside the board create them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+	@Param({ "level01", "level04", "level08", "synthetic-64", "synthetic-512" })
+	public String level;
+
+	private Board board;
+	private Location[] squares;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.board = new Board(Levels.rows(this.level));
+		int width = this.board.width();
+		this.squares = new Location[width * this.board.height()];
+		for (int i = 0; i < this.squares.length; i++) {
+			this.squares[i] = new Location(i % width, i / width);
+		}
+	}
+
+	@Benchmark
+	public void isOccupied(Blackhole bh) {
+		for (Location square : this.squares) {
+			bh.consume(this.board.isOccupied(square));
+		}
+	}
+
+	@Benchmark
+	public void hasBox(Blackhole bh) {
+		for (Location square : this.squares) {
+			bh.consume(this.board.hasBox(square));
+		}
+	}
+
+	@Benchmark
+	public void hasBoxByCell(Blackhole bh) {
+		for (int cell = 0; cell < this.squares.length; cell++) {
+			bh.consume(this.board.hasBox(cell));
+		}
+	}
+
+	@Benchmark
+	public void isReachable(Blackhole bh) {
+		for (int cell = 0; cell < this.squares.length; cell++) {
+			bh.consume(this.board.isReachable(cell));
+		}
+	}
+
+	@Benchmark
+	public boolean isSolved() {
+		return this.board.isSolved();
+	}
+
+	@Benchmark
+	public String toStringBoard() {
+		return this.board.toString();
+	}
+}
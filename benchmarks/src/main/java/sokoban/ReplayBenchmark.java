@@ -0,0 +1,52 @@
+package sokoban;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of checking a solution with {@code Board.replay}: restoring the
+ * initial position and replaying a solution found by the solver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+	@Param({ "level01", "level02", "level03" })
+	public String level;
+
+	private Board board;
+	private BoardState initial;
+	private String solution;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.board = new Board(Levels.rows(this.level));
+		this.initial = this.board.snapshot();
+		this.solution = new Solver(this.board).solve();
+		if (this.solution == null) {
+			throw new IllegalStateException(this.level + " has no solution");
+		}
+	}
+
+	@Benchmark
+	public ReplayResult replaySolution() {
+		this.board.restore(this.initial);
+		return this.board.replay(this.solution);
+	}
+}
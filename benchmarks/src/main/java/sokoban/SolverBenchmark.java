@@ -0,0 +1,44 @@
+package sokoban;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time taken by {@code Solver} to find an optimal solution of the shipped
+ * levels it can solve in well under a second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+
+	@Param({ "level01", "level04", "level06" })
+	public String level;
+
+	private Board board;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.board = new Board(Levels.rows(this.level));
+	}
+
+	@Benchmark
+	public String solve() {
+		return new Solver(this.board).solve();
+	}
+}